@@ -0,0 +1,236 @@
+package org.openmrs.module.paradygm;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Hands out Paradygm sequence values from blocks reserved in a single idgen call, so bulk registrations do not
+ * need one idgen round trip per patient.
+ *
+ * Block allocation is off unless the {@value #GP_BLOCK_SIZE} global property is greater than zero. When enabled,
+ * patients saved with an identifier that carries no sequence (empty or just the source prefix) get the next
+ * value of the current block. Values that were reserved but not issued are given back on module shutdown when
+ * nobody else has advanced the idgen sequence since, and logged as a gap otherwise. Changes of the block size
+ * apply to the next block reserved, without restarting the module.
+ *
+ * Reservations take a lock per source, so a slow idgen call for one source does not hold up registrations of
+ * the others. Each reservation commits in a transaction of its own: a registration that rolls back must not take
+ * the advance of the idgen sequence with it while the values are still handed out from the block.
+ */
+public class IdentifierBlockAllocator implements GlobalPropertyListener {
+
+    public static final String GP_BLOCK_SIZE = "paradygm.identifier.blockSize";
+
+    private static final Logger log = LoggerFactory.getLogger(IdentifierBlockAllocator.class);
+
+    private static final IdentifierBlockAllocator INSTANCE = new IdentifierBlockAllocator();
+
+    private static final String RESERVATION_COMMENT = "Paradygm EMR block reservation";
+
+    private final ParadygmIdFormatter formatter = ParadygmIdFormatter.getInstance();
+
+    private final ConcurrentMap<String, Block> blocks = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Object> sourceLocks = new ConcurrentHashMap<>();
+
+    private volatile int blockSize;
+
+    private volatile PlatformTransactionManager transactionManager;
+
+    public static IdentifierBlockAllocator getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return blockSize > 0;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(0, blockSize);
+    }
+
+    /**
+     * Sets the transaction manager the reservations commit through, required before a block is reserved.
+     */
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * Sets the block size from the value of {@value #GP_BLOCK_SIZE}, turning block allocation off if it is blank
+     * or not a number.
+     */
+    public void load(String value) {
+        int newBlockSize = 0;
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                newBlockSize = Integer.parseInt(value.trim());
+            }
+            catch (NumberFormatException e) {
+                log.warn("Ignoring invalid value '{}' of {}", value, GP_BLOCK_SIZE);
+            }
+        }
+        setBlockSize(newBlockSize);
+        if (isEnabled()) {
+            log.info("Paradygm identifier block allocation enabled with blocks of {}", blockSize);
+        }
+    }
+
+    /**
+     * Returns the next reserved sequence value of the given source, reserving a new block when the current one
+     * is used up.
+     */
+    public long next(IdentifierSourceService service, SequentialIdentifierGenerator generator, String prefix) {
+        String uuid = generator.getUuid();
+        while (true) {
+            Block block = blocks.get(uuid);
+            if (block != null) {
+                long value = block.next();
+                if (value >= 0) {
+                    return value;
+                }
+            }
+            synchronized (lockFor(uuid)) {
+                if (blocks.get(uuid) == block) {
+                    blocks.put(uuid, reserve(service, generator, prefix));
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the current block of the given source without giving its values back, e.g. after the sequence was
+     * reset for a new year.
+     */
+    public void discard(String sourceUuid) {
+        Block block = blocks.remove(sourceUuid);
+        if (block != null && block.remaining() > 0) {
+            log.info("Discarded {} reserved Paradygm sequence values of source {}", block.remaining(), sourceUuid);
+        }
+    }
+
+    /**
+     * Gives unused reserved values back to idgen where that is still possible and forgets all blocks.
+     */
+    public void release(IdentifierSourceService service) {
+        for (String uuid : blocks.keySet()) {
+            Block block;
+            synchronized (lockFor(uuid)) {
+                block = blocks.remove(uuid);
+            }
+            if (block != null) {
+                release(service, block);
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsPropertyName(String propertyName) {
+        return GP_BLOCK_SIZE.equals(propertyName);
+    }
+
+    @Override
+    public void globalPropertyChanged(GlobalProperty newValue) {
+        load(newValue.getPropertyValue());
+    }
+
+    @Override
+    public void globalPropertyDeleted(String propertyName) {
+        load(null);
+    }
+
+    private Object lockFor(String sourceUuid) {
+        return sourceLocks.computeIfAbsent(sourceUuid, uuid -> new Object());
+    }
+
+    private void release(IdentifierSourceService service, Block block) {
+        long firstUnused = block.firstUnused();
+        if (firstUnused < 0) {
+            return;
+        }
+        long lastReserved = block.last();
+        try {
+            Long current = service.getSequenceValue(block.generator);
+            if (current != null && current == lastReserved + 1) {
+                service.saveSequenceValue(block.generator, firstUnused);
+                log.info("Returned Paradygm sequence values {} to {} of source {} to idgen", firstUnused, lastReserved,
+                        block.generator.getUuid());
+            } else {
+                log.warn("Paradygm sequence values {} to {} of source {} were reserved but never issued",
+                        firstUnused, lastReserved, block.generator.getUuid());
+            }
+        } catch (Exception e) {
+            log.error("Unable to release reserved Paradygm sequence values {} to {}", firstUnused, lastReserved, e);
+        }
+    }
+
+    private Block reserve(IdentifierSourceService service, SequentialIdentifierGenerator generator, String prefix) {
+        PlatformTransactionManager manager = transactionManager;
+        if (manager == null) {
+            throw new IllegalStateException("No transaction manager to reserve Paradygm sequence values with");
+        }
+        TransactionTemplate transactionTemplate = new TransactionTemplate(manager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        final int size = blockSize;
+        List<String> identifiers = transactionTemplate.execute(
+                status -> service.generateIdentifiers(generator, size, RESERVATION_COMMENT));
+        if (identifiers == null || identifiers.isEmpty()) {
+            throw new IllegalStateException("Unable to reserve Paradygm sequence values from source " + generator.getUuid());
+        }
+        long[] values = new long[identifiers.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = formatter.parseSequence(identifiers.get(i), prefix);
+        }
+        log.debug("Reserved {} Paradygm sequence values of source {}", values.length, generator.getUuid());
+        return new Block(generator, values);
+    }
+
+    private static final class Block {
+
+        private final SequentialIdentifierGenerator generator;
+
+        private final long[] values;
+
+        private final AtomicInteger index = new AtomicInteger();
+
+        Block(SequentialIdentifierGenerator generator, long[] values) {
+            this.generator = generator;
+            this.values = values;
+        }
+
+        long next() {
+            int i = index.getAndIncrement();
+            return i < values.length ? values[i] : -1;
+        }
+
+        int remaining() {
+            return Math.max(0, values.length - index.get());
+        }
+
+        long firstUnused() {
+            int i = index.get();
+            return i < values.length ? values[i] : -1;
+        }
+
+        long last() {
+            return values[values.length - 1];
+        }
+    }
+}
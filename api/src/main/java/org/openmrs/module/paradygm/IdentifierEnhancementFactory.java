@@ -1,176 +1,217 @@
 package org.openmrs.module.paradygm;
 
 import java.time.Year;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.idgen.SequentialIdentifierGenerator;
 import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierSourceCache.CachedIdentifierSource;
+import org.openmrs.module.paradygm.metrics.ParadygmMetrics;
+import org.openmrs.module.paradygm.metrics.ParadygmMetrics.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class IdentifierEnhancementFactory {
 
     public static final String PARADYGM_IDENTIFIER_SOURCE_UUID = "8549f706-7e85-4c1d-9424-217d50a2988b";
     public static final int RESET_IDENTIFIER_SEQUENCE_VALUE = 1;
-    private static int lastRecordedYear = Year.now().getValue() % 100;
-    protected Log log = LogFactory.getLog(getClass());
-    private Boolean isIdentiferSequenceReset;
+    private static final Logger log = LoggerFactory.getLogger(IdentifierEnhancementFactory.class);
+    private final ParadygmIdFormatter formatter = ParadygmIdFormatter.getInstance();
+    private final ParadygmMetrics metrics = ParadygmMetrics.getInstance();
+    private final IdentifierBlockAllocator blockAllocator = IdentifierBlockAllocator.getInstance();
+    private final IdentifierEnhancementRegistry registry = IdentifierEnhancementRegistry.getInstance();
 
     // Add this field to allow dependency injection in tests
     private IdentifierSourceService identifierSourceService;
 
-    public void enhanceIdentifier(Patient patient) {
-        System.out.println("DEBUG: Starting ID enhancement for patient: " + patient.getPatientId());
+    /**
+     * Rewrites the patient's identifiers into the Paradygm ID format. Every active identifier whose type is issued
+     * by one of the sources of the {@link IdentifierEnhancementRegistry} is enhanced with that source's prefix and
+     * year; if there is none, the preferred identifier is enhanced with the default Paradygm source.
+     *
+     * @return the uuids of the sources for which this call started a new year, the caller must call
+     *         {@link #saveNewIdentifierSequenceValue(String)} for each of them once the patient has been saved
+     */
+    public List<String> enhanceIdentifier(Patient patient) {
+        log.trace("Starting ID enhancement for patient: {}", patient.getPatientId());
 
         // Check if patient has an identifier
         if (patient.getPatientIdentifier() == null) {
-            System.out.println("DEBUG: ERROR - Patient has no identifier");
             log.error("Patient has no identifier to enhance");
-            return;
+            return Collections.emptyList();
         }
 
-        // Use the injected service if available, otherwise get from Context
         IdentifierSourceService service = getIdentifierSourceService();
-        System.out.println("DEBUG: Got IdentifierSourceService: " + (service != null ? "Yes" : "No"));
-
-        SequentialIdentifierGenerator paradygmIdentifierSource = null;
-        try {
-            paradygmIdentifierSource = (SequentialIdentifierGenerator)
-                    service.getIdentifierSourceByUuid(PARADYGM_IDENTIFIER_SOURCE_UUID);
-            System.out.println("DEBUG: Got identifier source: " + (paradygmIdentifierSource != null ? "Yes" : "No"));
-        } catch (Exception e) {
-            System.out.println("DEBUG: Exception getting identifier source: " + e.getMessage());
-            e.printStackTrace();
+        if (service == null) {
+            log.error("IdentifierSourceService is not available hence skipping Paradygm ID generation");
+            return Collections.emptyList();
         }
 
-        if (paradygmIdentifierSource == null) {
-            System.out.println("DEBUG: Identifier Source not found with UUID: " + PARADYGM_IDENTIFIER_SOURCE_UUID);
-            log.error("Identifier Source with uuid " + PARADYGM_IDENTIFIER_SOURCE_UUID + " is not found hence skipping Paradygm ID generation");
-            return;
+        List<String> sequenceResets = null;
+        boolean enhanced = false;
+        for (PatientIdentifier identifier : patient.getActiveIdentifiers()) {
+            String sourceUuid = registry.getSourceUuid(identifier.getIdentifierType(), service);
+            if (sourceUuid != null) {
+                enhanced = true;
+                if (enhanceIdentifier(patient, identifier, sourceUuid, service)) {
+                    sequenceResets = addTo(sequenceResets, sourceUuid);
+                }
+            }
         }
+        if (!enhanced) {
+            String sourceUuid = registry.getDefaultSourceUuid();
+            if (enhanceIdentifier(patient, patient.getPatientIdentifier(), sourceUuid, service)) {
+                sequenceResets = addTo(sequenceResets, sourceUuid);
+            }
+        }
+        return sequenceResets != null ? sequenceResets : Collections.<String>emptyList();
+    }
 
-        String prefix = getPrefix(paradygmIdentifierSource);
-        System.out.println("DEBUG: Using prefix: '" + prefix + "'");
+    private boolean enhanceIdentifier(Patient patient, PatientIdentifier identifier, String sourceUuid,
+                                      IdentifierSourceService service) {
+        long start = System.nanoTime();
+        CachedIdentifierSource identifierSource = getIdentifierSource(sourceUuid, service);
+        long sourceResolved = metrics.recordPhase(Phase.SOURCE_LOOKUP, start);
 
-        PatientIdentifier identifier = patient.getPatientIdentifier();
-        System.out.println("DEBUG: Original identifier: '" + identifier.getIdentifier() + "'");
+        if (identifierSource == null) {
+            log.error("Identifier Source with uuid {} is not found hence skipping Paradygm ID generation", sourceUuid);
+            return false;
+        }
 
-        String bashId = StringUtils.substringAfter(identifier.getIdentifier(), prefix);
-        System.out.println("DEBUG: Extracted bashId: '" + bashId + "'");
+        String prefix = identifierSource.getPrefix();
+        log.trace("Enhancing identifier '{}' using prefix '{}'", identifier.getIdentifier(), prefix);
 
-        int translatedBashId;
+        long sequence;
         try {
-            translatedBashId = Integer.valueOf(bashId);
-            System.out.println("DEBUG: Parsed translatedBashId: " + translatedBashId);
-        }
-        catch (Exception e) {
-            System.out.println("DEBUG: Failed to parse bashId: " + e.getMessage());
-            throw new IllegalArgumentException("Invalid Paradygm ID: " + bashId, e);
+            if (blockAllocator.isEnabled() && carriesNoSequence(identifier.getIdentifier(), prefix)) {
+                sequence = blockAllocator.next(service, identifierSource.getGenerator(), prefix);
+            } else {
+                sequence = formatter.parseSequence(identifier.getIdentifier(), prefix);
+            }
+        } finally {
+            sourceResolved = metrics.recordPhase(Phase.PARSE, sourceResolved);
         }
 
         int currentYearPrefix = Year.now().getValue() % 100;
-        System.out.println("DEBUG: Current year: " + currentYearPrefix + ", Last recorded year: " + lastRecordedYear);
-
-        if (lastRecordedYear != currentYearPrefix) {
-            shouldIdentiferSequenceReset(true);
-            System.out.println("DEBUG: Year changed - resetting sequence");
-            log.warn("Resetting identifier Sequence since years have changed. Last recorded year is: "+ lastRecordedYear + " and Current year is: "+currentYearPrefix);
-            translatedBashId = RESET_IDENTIFIER_SEQUENCE_VALUE;
-            lastRecordedYear = currentYearPrefix;
-        } else {
-            shouldIdentiferSequenceReset(false);
-            System.out.println("DEBUG: Same year - no reset needed");
+        YearRolloverState yearRolloverState = registry.getRolloverState(sourceUuid);
+        int lastRecordedYear = yearRolloverState.getLastRecordedYear();
+        boolean sequenceReset = yearRolloverState.rollover(currentYearPrefix);
+        if (sequenceReset) {
+            log.warn("Resetting identifier Sequence of source {} since years have changed. Last recorded year is: {} and Current year is: {}",
+                    sourceUuid, lastRecordedYear, currentYearPrefix);
+            sequence = RESET_IDENTIFIER_SEQUENCE_VALUE;
         }
 
-        translatedBashId = translatedBashId + (currentYearPrefix * 1000000);
-        System.out.println("DEBUG: Final translatedBashId: " + translatedBashId);
-
-        bashId = String.valueOf(translatedBashId);
-        System.out.println("DEBUG: Final bashId string: " + bashId);
-
-        // regex below inserts a hyphen after every group of three digits in the Identifier.
-        String regex = "(\\d)(?=(\\d{3})+$)";
-        StringBuilder enhancedId = new StringBuilder();
-        enhancedId.append(prefix)
-                .append(bashId.replaceAll(regex, "$1-"));
-
-        String finalId = enhancedId.toString();
-        System.out.println("DEBUG: Setting enhanced ID: '" + finalId + "'");
-
+        String finalId;
+        try {
+            finalId = formatter.format(prefix, currentYearPrefix, sequence);
+        } catch (IllegalArgumentException e) {
+            throw new APIException("Identifier source " + sourceUuid + " reached sequence " + sequence + ", the Paradygm ID"
+                    + " format " + formatter.getTemplate() + " holds at most " + formatter.getMaxSequence()
+                    + " registrations a year", e);
+        }
         identifier.setIdentifier(finalId);
-        System.out.println("DEBUG: ID enhancement complete");
+        metrics.recordPhase(Phase.FORMAT, sourceResolved);
+        log.debug("Enhanced identifier of patient {} to '{}'", patient.getPatientId(), finalId);
+        return sequenceReset;
     }
 
-    private String getPrefix(SequentialIdentifierGenerator IdentifierSourceGenerator) {
-        String prefix = IdentifierSourceGenerator.getPrefix();
-        System.out.println("DEBUG: Raw prefix from generator: '" + prefix + "'");
-        return prefix != null ? prefix : "";
+    private List<String> addTo(List<String> sourceUuids, String sourceUuid) {
+        List<String> result = sourceUuids != null ? sourceUuids : new ArrayList<String>(1);
+        result.add(sourceUuid);
+        return result;
     }
 
-    private void shouldIdentiferSequenceReset(boolean isIdentiferSequenceResetValue) {
-        this.isIdentiferSequenceReset = isIdentiferSequenceResetValue;
-        System.out.println("DEBUG: Set isIdentifierSequenceReset to: " + isIdentiferSequenceResetValue);
+    private boolean carriesNoSequence(String identifier, String prefix) {
+        return identifier == null || identifier.trim().isEmpty() || identifier.equals(prefix);
     }
 
-    public boolean hasIsIdentiferSequenceReset() {
-        return this.isIdentiferSequenceReset;
+    private CachedIdentifierSource getIdentifierSource(String sourceUuid, IdentifierSourceService service) {
+        if (service == null) {
+            return null;
+        }
+        try {
+            return IdentifierSourceCache.getInstance().get(sourceUuid, service);
+        } catch (Exception e) {
+            log.error("Unable to load identifier source with uuid {}", sourceUuid, e);
+            return null;
+        }
     }
 
+    /**
+     * Resets the idgen sequence of the default Paradygm source.
+     *
+     * @see #saveNewIdentifierSequenceValue(String)
+     */
     public void saveNewIdentifierSequenceValue() {
-        System.out.println("DEBUG: saveNewIdentifierSequenceValue called, reset needed: " + hasIsIdentiferSequenceReset());
-        if(hasIsIdentiferSequenceReset()) {
+        saveNewIdentifierSequenceValue(PARADYGM_IDENTIFIER_SOURCE_UUID);
+    }
+
+    /**
+     * Resets the idgen sequence of the given source so that the next identifier issued is the second of the new
+     * year. Must only be called for sources returned by {@link #enhanceIdentifier(Patient)}.
+     */
+    public void saveNewIdentifierSequenceValue(String sourceUuid) {
+        long start = System.nanoTime();
+        try {
             IdentifierSourceService service = getIdentifierSourceService();
-            System.out.println("DEBUG: Got service for saving sequence: " + (service != null ? "Yes" : "No"));
-
-            try {
-                SequentialIdentifierGenerator paradygmIdentifierSource = (SequentialIdentifierGenerator)
-                        service.getIdentifierSourceByUuid(PARADYGM_IDENTIFIER_SOURCE_UUID);
-                System.out.println("DEBUG: Got identifier source for saving: " + (paradygmIdentifierSource != null ? "Yes" : "No"));
-
-                if (paradygmIdentifierSource != null) {
-                    service.saveSequenceValue(paradygmIdentifierSource, RESET_IDENTIFIER_SEQUENCE_VALUE + 1);
-                    System.out.println("DEBUG: Successfully saved new sequence value: " + (RESET_IDENTIFIER_SEQUENCE_VALUE + 1));
-                    log.warn("identifier Sequence Successfully Reset");
-                } else {
-                    System.out.println("DEBUG: Failed to save sequence - source not found");
-                }
-            } catch (Exception e) {
-                System.out.println("DEBUG: Exception while saving sequence: " + e.getMessage());
-                e.printStackTrace();
+            CachedIdentifierSource identifierSource = getIdentifierSource(sourceUuid, service);
+            if (identifierSource != null) {
+                blockAllocator.discard(sourceUuid);
+                service.saveSequenceValue(identifierSource.getGenerator(), RESET_IDENTIFIER_SEQUENCE_VALUE + 1);
+                metrics.recordSequenceReset();
+                log.warn("identifier Sequence of source {} Successfully Reset", sourceUuid);
+            } else {
+                log.error("Unable to reset identifier Sequence, identifier source with uuid {} is not found", sourceUuid);
             }
+        } catch (Exception e) {
+            log.error("Unable to reset identifier Sequence of source {}", sourceUuid, e);
+        } finally {
+            metrics.recordPhase(Phase.SEQUENCE_RESET, start);
+        }
+    }
+
+    /**
+     * Gives back the year change of the given source when the save of the patient that started it failed, so the
+     * next registration resets the sequence instead. Must only be called for sources returned by
+     * {@link #enhanceIdentifier(Patient)}.
+     */
+    public void revertSequenceReset(String sourceUuid) {
+        int currentYearPrefix = Year.now().getValue() % 100;
+        try {
+            if (!registry.getRolloverState(sourceUuid).revertRollover(currentYearPrefix)) {
+                log.warn("Unable to revert the year change of source {}, another registration changed it since", sourceUuid);
+            }
+        } catch (Exception e) {
+            log.error("Unable to revert the year change of source {}, its sequence must be reset by hand", sourceUuid, e);
         }
     }
 
     // Method to get the service - enables dependency injection for testing
     private IdentifierSourceService getIdentifierSourceService() {
         if (identifierSourceService != null) {
-            System.out.println("DEBUG: Using injected identifierSourceService");
             return identifierSourceService;
         }
-        System.out.println("DEBUG: Getting identifierSourceService from Context");
         try {
-            IdentifierSourceService service = Context.getService(IdentifierSourceService.class);
-            System.out.println("DEBUG: Service from Context: " + (service != null ? "Success" : "Null"));
-            return service;
+            return Context.getService(IdentifierSourceService.class);
         } catch (Exception e) {
-            System.out.println("DEBUG: Exception getting service from Context: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Unable to get IdentifierSourceService from Context", e);
             return null;
         }
     }
 
     // Setter for dependency injection in tests
     public void setIdentifierSourceService(IdentifierSourceService identifierSourceService) {
-        System.out.println("DEBUG: Setting injected identifierSourceService: " + (identifierSourceService != null ? "Not null" : "Null"));
         this.identifierSourceService = identifierSourceService;
     }
 
     // Method for testing to set the last recorded year
     public void setLastRecordedYearForTesting(int year) {
-        System.out.println("DEBUG: Setting lastRecordedYear from " + lastRecordedYear + " to " + year);
-        lastRecordedYear = year;
+        registry.getRolloverState(PARADYGM_IDENTIFIER_SOURCE_UUID).setLastRecordedYear(year);
     }
-}
\ No newline at end of file
+}
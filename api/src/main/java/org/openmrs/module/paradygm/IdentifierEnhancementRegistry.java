@@ -0,0 +1,160 @@
+package org.openmrs.module.paradygm;
+
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierSourceCache.CachedIdentifierSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Knows which identifier sources take part in Paradygm ID enhancement and which identifier type each of them
+ * issues, so that facilities with their own sequential generator and prefix each get their identifiers
+ * enhanced.
+ *
+ * The sources are the default {@link IdentifierEnhancementFactory#PARADYGM_IDENTIFIER_SOURCE_UUID} plus any
+ * listed in the {@value #GP_IDENTIFIER_SOURCES} global property. They are resolved once, when the module starts
+ * or after a source changed, into an in-memory index from identifier type to source, so adding a facility adds no
+ * queries to saving a patient. Every source keeps its own {@link YearRolloverState}, coordinated with other
+ * nodes through the {@link YearEpochStore} if one is set.
+ */
+public class IdentifierEnhancementRegistry {
+
+    public static final String GP_IDENTIFIER_SOURCES = "paradygm.identifier.sources";
+
+    private static final Logger log = LoggerFactory.getLogger(IdentifierEnhancementRegistry.class);
+
+    private static final IdentifierEnhancementRegistry INSTANCE = new IdentifierEnhancementRegistry();
+
+    private final IdentifierSourceCache sourceCache = IdentifierSourceCache.getInstance();
+
+    private final ConcurrentMap<String, YearRolloverState> rolloverStates = new ConcurrentHashMap<>();
+
+    private volatile YearEpochStore yearEpochStore;
+
+    private volatile List<String> sourceUuids = Collections
+            .singletonList(IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID);
+
+    private volatile Map<String, String> sourcesByIdentifierType;
+
+    public static IdentifierEnhancementRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the additional sources from a comma separated list of identifier source uuids.
+     */
+    public void configure(String additionalSourceUuids) {
+        List<String> uuids = new ArrayList<>();
+        uuids.add(IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID);
+        if (additionalSourceUuids != null) {
+            for (String uuid : StringUtils.split(additionalSourceUuids, ", \n")) {
+                if (!uuids.contains(uuid)) {
+                    uuids.add(uuid);
+                }
+            }
+        }
+        sourceUuids = Collections.unmodifiableList(uuids);
+        invalidate();
+    }
+
+    /**
+     * Resolves all configured sources and rebuilds the identifier type index.
+     */
+    public Map<String, String> initialize(IdentifierSourceService service) {
+        Map<String, String> index = new HashMap<>();
+        for (String uuid : sourceUuids) {
+            CachedIdentifierSource source = sourceCache.get(uuid, service);
+            if (source == null) {
+                log.warn("Identifier Source with uuid {} is not found, its identifiers will not be enhanced", uuid);
+            } else if (source.getIdentifierTypeUuid() != null) {
+                String previous = index.put(source.getIdentifierTypeUuid(), uuid);
+                if (previous != null) {
+                    log.warn("Identifier sources {} and {} issue the same identifier type, using {}", previous, uuid, uuid);
+                }
+            }
+        }
+        sourcesByIdentifierType = Collections.unmodifiableMap(index);
+        return sourcesByIdentifierType;
+    }
+
+    /**
+     * Resolves all configured sources and returns the prefix of each identifier type that is enhanced.
+     */
+    public Map<String, String> getPrefixesByIdentifierType(IdentifierSourceService service) {
+        Map<String, String> prefixes = new HashMap<>();
+        for (Map.Entry<String, String> source : initialize(service).entrySet()) {
+            CachedIdentifierSource identifierSource = sourceCache.get(source.getValue(), service);
+            if (identifierSource != null) {
+                prefixes.put(source.getKey(), identifierSource.getPrefix());
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * Forgets the identifier type index, it is rebuilt on next use. Year rollover states are kept.
+     */
+    public void invalidate() {
+        sourcesByIdentifierType = null;
+    }
+
+    public String getDefaultSourceUuid() {
+        return IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID;
+    }
+
+    public List<String> getSourceUuids() {
+        return sourceUuids;
+    }
+
+    /**
+     * @return the uuid of the source that issues identifiers of the given type, null if none does
+     */
+    public String getSourceUuid(PatientIdentifierType identifierType, IdentifierSourceService service) {
+        if (identifierType == null) {
+            return null;
+        }
+        return getSourceUuid(identifierType.getUuid(), service);
+    }
+
+    /**
+     * @return the uuid of the source that issues identifiers of the type with the given uuid, null if none does
+     */
+    public String getSourceUuid(String identifierTypeUuid, IdentifierSourceService service) {
+        if (identifierTypeUuid == null) {
+            return null;
+        }
+        Map<String, String> index = sourcesByIdentifierType;
+        if (index == null) {
+            index = initialize(service);
+        }
+        return index.get(identifierTypeUuid);
+    }
+
+    public YearRolloverState getRolloverState(String sourceUuid) {
+        return rolloverStates.computeIfAbsent(sourceUuid,
+                uuid -> new YearRolloverState(uuid, Year.now().getValue() % 100, yearEpochStore));
+    }
+
+    public YearEpochStore getYearEpochStore() {
+        return yearEpochStore;
+    }
+
+    /**
+     * Sets the store year rollovers are coordinated through, null to decide in this JVM only. Forgets all year
+     * rollover states, so their years must be restored afterwards.
+     */
+    public void setYearEpochStore(YearEpochStore yearEpochStore) {
+        this.yearEpochStore = yearEpochStore;
+        rolloverStates.clear();
+    }
+}
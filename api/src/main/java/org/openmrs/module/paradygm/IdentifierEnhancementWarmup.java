@@ -0,0 +1,162 @@
+package org.openmrs.module.paradygm;
+
+import java.time.Year;
+import java.util.HashSet;
+import java.util.List;
+
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierSourceCache.CachedIdentifierSource;
+import org.openmrs.module.paradygm.ParadygmIdFormatter.ParsedId;
+import org.openmrs.module.paradygm.lookup.IdentifierLookupDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares identifier enhancement when the module starts, so the first registration after a restart is as fast
+ * as any other and starts the right year.
+ *
+ * Every configured source is resolved into the {@link IdentifierSourceCache} and the identifier type index, and
+ * its {@link YearRolloverState} is set to the year of the newest Paradygm ID stored for it instead of the wall
+ * clock. A server that was down over New Year therefore still resets the sequence on its first registration.
+ * When several nodes share the database the year is taken from the {@link YearEpochStore} instead, and stored
+ * there from the newest ID if no node did so yet.
+ * Sources are also checked against idgen, and the formatter is exercised once.
+ */
+public class IdentifierEnhancementWarmup {
+
+    static final int NEWEST_IDENTIFIERS = 20;
+
+    private static final Logger log = LoggerFactory.getLogger(IdentifierEnhancementWarmup.class);
+
+    private final IdentifierSourceService identifierSourceService;
+
+    private final IdentifierLookupDao identifierLookupDao;
+
+    private final IdentifierEnhancementRegistry registry = IdentifierEnhancementRegistry.getInstance();
+
+    private final ParadygmIdFormatter formatter = ParadygmIdFormatter.getInstance();
+
+    public IdentifierEnhancementWarmup(IdentifierSourceService identifierSourceService,
+                                       IdentifierLookupDao identifierLookupDao) {
+        this.identifierSourceService = identifierSourceService;
+        this.identifierLookupDao = identifierLookupDao;
+    }
+
+    /**
+     * Warms up all configured sources. Must run in a transaction.
+     *
+     * @return the number of sources that are ready for enhancement
+     */
+    public int warm() {
+        long start = System.currentTimeMillis();
+        registry.initialize(identifierSourceService);
+        int currentYear = Year.now().getValue() % 100;
+        int ready = 0;
+        for (String sourceUuid : registry.getSourceUuids()) {
+            CachedIdentifierSource source = IdentifierSourceCache.getInstance().get(sourceUuid, identifierSourceService);
+            if (source == null) {
+                continue;
+            }
+            ParsedId newest = getNewestIssuedId(source);
+            restoreLastRecordedYear(sourceUuid, newest, currentYear);
+            validateSequence(sourceUuid, source, newest, currentYear);
+            ready++;
+        }
+        warmFormatter(currentYear);
+        log.info("Warmed up {} Paradygm identifier sources in {} ms", ready, System.currentTimeMillis() - start);
+        return ready;
+    }
+
+    private ParsedId getNewestIssuedId(CachedIdentifierSource source) {
+        if (source.getIdentifierTypeUuid() == null) {
+            return null;
+        }
+        List<String> identifiers = identifierLookupDao.getNewestIdentifiers(source.getIdentifierTypeUuid(),
+                NEWEST_IDENTIFIERS);
+        for (String identifier : identifiers) {
+            ParsedId parsed = formatter.parseFormatted(identifier, source.getPrefix());
+            if (parsed != null) {
+                return parsed;
+            }
+        }
+        return null;
+    }
+
+    private void restoreLastRecordedYear(String sourceUuid, ParsedId newest, int currentYear) {
+        Integer year = null;
+        if (newest == null) {
+            log.debug("No Paradygm ID stored for source {} yet", sourceUuid);
+        } else if (newest.getYear() > currentYear) {
+            log.warn("Newest Paradygm ID of source {} was issued in year {} which is after the current year {}, check the"
+                    + " server clock", sourceUuid, newest.getYear(), currentYear);
+        } else {
+            year = newest.getYear();
+        }
+        YearEpochStore epochStore = registry.getYearEpochStore();
+        if (epochStore != null) {
+            year = restoreStoredYear(epochStore, sourceUuid, year, currentYear);
+        }
+        if (year == null) {
+            return;
+        }
+        registry.getRolloverState(sourceUuid).setLastRecordedYear(year);
+        if (year < currentYear) {
+            log.info("Last Paradygm ID of source {} was issued in year {}, the next registration resets its sequence",
+                    sourceUuid, year);
+        }
+    }
+
+    /**
+     * @return the year shared with the other nodes, which is stored first if no node did so yet
+     */
+    private Integer restoreStoredYear(YearEpochStore epochStore, String sourceUuid, Integer newestYear, int currentYear) {
+        int stored = epochStore.initialize(sourceUuid, newestYear != null ? newestYear : currentYear);
+        if (newestYear != null && newestYear > stored) {
+            // IDs of a later year were issued without the store, that year's reset already happened
+            log.warn("Paradygm ID year {} of source {} is behind its newest ID, moving it to {}", stored, sourceUuid,
+                    newestYear);
+            epochStore.advance(sourceUuid, newestYear);
+            return newestYear;
+        }
+        if (stored > currentYear) {
+            log.warn("Paradygm ID year of source {} is {} which is after the current year {}, check the server clocks",
+                    sourceUuid, stored, currentYear);
+            return newestYear;
+        }
+        return stored;
+    }
+
+    private void validateSequence(String sourceUuid, CachedIdentifierSource source, ParsedId newest, int currentYear) {
+        if (source.getPrefix().isEmpty()) {
+            log.warn("Identifier source {} has no prefix, its Paradygm IDs can not be told apart from other identifiers",
+                    sourceUuid);
+        }
+        Long nextSequence;
+        try {
+            nextSequence = identifierSourceService.getSequenceValue(source.getGenerator());
+        } catch (Exception e) {
+            log.warn("Unable to read the idgen sequence of source {}", sourceUuid, e);
+            return;
+        }
+        if (nextSequence == null) {
+            log.warn("Identifier source {} has no sequence value yet", sourceUuid);
+        } else if (newest != null && newest.getYear() == currentYear && nextSequence <= newest.getSequence()) {
+            log.warn("idgen sequence of source {} is at {} but Paradygm ID sequence {} was already issued this year,"
+                    + " registrations will get duplicate IDs", sourceUuid, nextSequence, newest.getSequence());
+        }
+    }
+
+    /**
+     * Enhances and parses back a first identifier of every prefix in use, as the next registration will.
+     */
+    private void warmFormatter(int currentYear) {
+        for (String prefix : new HashSet<>(registry.getPrefixesByIdentifierType(identifierSourceService).values())) {
+            try {
+                String identifier = formatter.format(prefix, currentYear, formatter.parseSequence(prefix + 1, prefix));
+                formatter.parse(identifier, prefix);
+            } catch (IllegalArgumentException e) {
+                log.warn("Paradygm IDs with prefix '{}' can not be parsed back: {}", prefix, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.openmrs.module.paradygm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openmrs.module.idgen.IdentifierSource;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+
+/**
+ * Keeps the resolved {@link SequentialIdentifierGenerator}s used for Paradygm ID generation, keyed by
+ * identifier source uuid, so that saving a patient does not need to look the source up in the database.
+ *
+ * Entries are invalidated when the underlying source is saved, retired or purged (see
+ * {@link org.openmrs.module.paradygm.advice.IdentifierSourceChangeAdvice}) and when the module context is
+ * refreshed. Missing sources are never cached, so a source created after a failed lookup is picked up on the
+ * next save.
+ */
+public class IdentifierSourceCache {
+
+    private static final IdentifierSourceCache INSTANCE = new IdentifierSourceCache();
+
+    private final ConcurrentMap<String, CachedIdentifierSource> sources = new ConcurrentHashMap<>();
+
+    public static IdentifierSourceCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached source for the given uuid, resolving it through the given service on a cache miss.
+     *
+     * @return the cached source or null if no sequential identifier generator exists with that uuid
+     */
+    public CachedIdentifierSource get(String uuid, IdentifierSourceService service) {
+        CachedIdentifierSource cached = sources.get(uuid);
+        if (cached != null) {
+            return cached;
+        }
+        IdentifierSource source = service.getIdentifierSourceByUuid(uuid);
+        if (!(source instanceof SequentialIdentifierGenerator)) {
+            return null;
+        }
+        cached = new CachedIdentifierSource((SequentialIdentifierGenerator) source);
+        CachedIdentifierSource existing = sources.putIfAbsent(uuid, cached);
+        return existing != null ? existing : cached;
+    }
+
+    public void invalidate(String uuid) {
+        if (uuid != null) {
+            sources.remove(uuid);
+        }
+    }
+
+    public void invalidateAll() {
+        sources.clear();
+    }
+
+    /**
+     * A resolved identifier source together with its (never null) prefix and the uuid of the identifier type it
+     * issues, both read while the source is still attached to the session it was loaded in.
+     */
+    public static final class CachedIdentifierSource {
+
+        private final SequentialIdentifierGenerator generator;
+
+        private final String prefix;
+
+        private final String identifierTypeUuid;
+
+        CachedIdentifierSource(SequentialIdentifierGenerator generator) {
+            this.generator = generator;
+            this.prefix = generator.getPrefix() != null ? generator.getPrefix() : "";
+            this.identifierTypeUuid = generator.getIdentifierType() != null ? generator.getIdentifierType().getUuid() : null;
+        }
+
+        public SequentialIdentifierGenerator getGenerator() {
+            return generator;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public String getIdentifierTypeUuid() {
+            return identifierTypeUuid;
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package org.openmrs.module.paradygm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmrs.module.paradygm.ParadygmIdFormatter.ParsedId;
+
+/**
+ * A Paradygm ID format compiled from a template such as {@code {prefix}{yy}-{seq:6,group3}{luhn}}.
+ *
+ * Text outside braces is copied as is. The fields are:
+ * <ul>
+ * <li>{@code {prefix}} the identifier source prefix</li>
+ * <li>{@code {yy}} the two digit year the ID is issued in</li>
+ * <li>{@code {seq}} the sequence within that year, required exactly once</li>
+ * <li>{@code {luhn}} a Luhn check digit over all digits written before it, the prefix included</li>
+ * </ul>
+ * {@code {yy:N}} and {@code {seq:N}} zero pad to N digits, and a value wider than N is rejected instead of
+ * spilling into the neighbouring field. The {@code group3} option inserts a hyphen before every trailing group
+ * of three digits of the sequence. A field without a width must be followed by text that can not be part of a
+ * number, otherwise parsing could not tell where it ends.
+ *
+ * The template is compiled once into an array of segments, so formatting and parsing are a single pass over
+ * it without regular expressions or intermediate strings. Instances are immutable and thread-safe.
+ */
+public final class IdentifierTemplate {
+
+    /**
+     * Reproduces the IDs issued before templates existed, e.g. {@code PDG200-25-000-001}.
+     */
+    public static final String DEFAULT_TEMPLATE = "{prefix}{yy}-{seq:6,group3}";
+
+    private static final int LITERAL = 0;
+
+    private static final int PREFIX = 1;
+
+    private static final int YEAR = 2;
+
+    private static final int SEQUENCE = 3;
+
+    private static final int LUHN = 4;
+
+    private static final int MAX_DIGITS = 18;
+
+    private static final long[] POWERS_OF_TEN = powersOfTen();
+
+    public static final IdentifierTemplate DEFAULT = compile(DEFAULT_TEMPLATE);
+
+    private final String template;
+
+    private final Segment[] segments;
+
+    private final long maxSequence;
+
+    private IdentifierTemplate(String template, Segment[] segments, long maxSequence) {
+        this.template = template;
+        this.segments = segments;
+        this.maxSequence = maxSequence;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the template is not valid
+     */
+    public static IdentifierTemplate compile(String template) {
+        if (template == null || template.trim().isEmpty()) {
+            throw new IllegalArgumentException("Paradygm ID template must not be empty");
+        }
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if (c == '}') {
+                throw new IllegalArgumentException("Unexpected '}' at " + i + " of Paradygm ID template " + template);
+            }
+            if (c != '{') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            int end = template.indexOf('}', i);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unclosed field at " + i + " of Paradygm ID template " + template);
+            }
+            if (literal.length() > 0) {
+                segments.add(Segment.literal(literal.toString()));
+                literal.setLength(0);
+            }
+            segments.add(Segment.field(template.substring(i + 1, end), template));
+            i = end + 1;
+        }
+        if (literal.length() > 0) {
+            segments.add(Segment.literal(literal.toString()));
+        }
+        return new IdentifierTemplate(template, segments.toArray(new Segment[0]), validate(segments, template));
+    }
+
+    /**
+     * @return the largest sequence this template can format
+     */
+    private static long validate(List<Segment> segments, String template) {
+        int[] counts = new int[LUHN + 1];
+        boolean digitsBefore = false;
+        long maxSequence = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (segment.kind != LITERAL && ++counts[segment.kind] > 1) {
+                throw new IllegalArgumentException("Field {" + segment.name() + "} appears more than once in Paradygm ID"
+                        + " template " + template);
+            }
+            if (segment.kind == LUHN && !digitsBefore) {
+                throw new IllegalArgumentException("{luhn} needs digits before it in Paradygm ID template " + template);
+            }
+            if (segment.isNumber()) {
+                digitsBefore = true;
+                if (segment.width == 0 && i + 1 < segments.size() && !segments.get(i + 1).canEndNumber(segment.grouped)) {
+                    throw new IllegalArgumentException("{" + segment.name() + "} has no width and is followed by digits in"
+                            + " Paradygm ID template " + template);
+                }
+            }
+            if (segment.kind == SEQUENCE) {
+                maxSequence = segment.width == 0 ? POWERS_OF_TEN[MAX_DIGITS] - 1 : POWERS_OF_TEN[segment.width] - 1;
+            }
+        }
+        if (counts[SEQUENCE] == 0) {
+            throw new IllegalArgumentException("Paradygm ID template " + template + " has no {seq} field");
+        }
+        return maxSequence;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public long getMaxSequence() {
+        return maxSequence;
+    }
+
+    /**
+     * @return the most digits the sequence of this template can have
+     */
+    public int getSequenceDigits() {
+        int digits = 1;
+        while (digits < MAX_DIGITS && POWERS_OF_TEN[digits] <= maxSequence) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Reads the year and sequence out of the digits that follow the prefix in an ID of this template, typed
+     * without its hyphens, e.g. {@code 25000001} for {@code PDG200-25-000-001}. The widths of the fields decide
+     * where each of them ends; if neither the year nor the sequence has a width, the year takes two digits.
+     * Digits of the text between the fields and the check digit are skipped, not verified.
+     *
+     * @return the year and sequence, or null if there are too many or too few digits for this template
+     */
+    public ParsedId parseDigits(String digits) {
+        int first = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].kind == PREFIX) {
+                first = i + 1;
+            }
+        }
+        int fixedDigits = 0;
+        boolean yearUnbounded = false;
+        boolean sequenceUnbounded = false;
+        for (int i = first; i < segments.length; i++) {
+            Segment segment = segments[i];
+            if (segment.kind == LITERAL) {
+                fixedDigits += countDigits(segment.literal);
+            } else if (segment.kind == LUHN) {
+                fixedDigits++;
+            } else if (segment.width > 0) {
+                fixedDigits += segment.width;
+            } else if (segment.kind == YEAR) {
+                yearUnbounded = true;
+            } else {
+                sequenceUnbounded = true;
+            }
+        }
+        int spare = digits.length() - fixedDigits;
+        int yearWidth = 0;
+        int sequenceWidth = 0;
+        if (yearUnbounded && sequenceUnbounded) {
+            yearWidth = Math.min(2, spare - 1);
+            sequenceWidth = spare - yearWidth;
+        } else if (yearUnbounded) {
+            yearWidth = spare;
+        } else if (sequenceUnbounded) {
+            sequenceWidth = spare;
+        } else if (spare != 0) {
+            return null;
+        }
+        if ((yearUnbounded && yearWidth < 1) || (sequenceUnbounded && sequenceWidth < 1)) {
+            return null;
+        }
+        int position = 0;
+        long year = 0;
+        long sequence = 0;
+        for (int i = first; i < segments.length; i++) {
+            Segment segment = segments[i];
+            if (segment.kind == LITERAL) {
+                position += countDigits(segment.literal);
+            } else if (segment.kind == LUHN) {
+                position++;
+            } else {
+                int width = segment.width > 0 ? segment.width : segment.kind == YEAR ? yearWidth : sequenceWidth;
+                if (width > MAX_DIGITS) {
+                    return null;
+                }
+                long value = 0;
+                for (int end = position + width; position < end; position++) {
+                    value = value * 10 + (digits.charAt(position) - '0');
+                }
+                if (segment.kind == YEAR) {
+                    year = value;
+                } else {
+                    sequence = value;
+                }
+            }
+        }
+        return year > Integer.MAX_VALUE ? null : new ParsedId((int) year, sequence);
+    }
+
+    /**
+     * Appends the formatted ID to the given buffer.
+     *
+     * @throws IllegalArgumentException if the year or sequence is negative or does not fit its field
+     */
+    public void appendTo(StringBuilder buffer, String prefix, int year, long sequence) {
+        int start = buffer.length();
+        for (Segment segment : segments) {
+            switch (segment.kind) {
+                case LITERAL:
+                    buffer.append(segment.literal);
+                    break;
+                case PREFIX:
+                    buffer.append(prefix);
+                    break;
+                case YEAR:
+                    appendNumber(buffer, year, segment);
+                    break;
+                case SEQUENCE:
+                    appendNumber(buffer, sequence, segment);
+                    break;
+                default:
+                    buffer.append((char) ('0' + luhn(buffer, start, buffer.length())));
+            }
+        }
+    }
+
+    /**
+     * Parses an ID written by {@link #appendTo(StringBuilder, String, int, long)} back into its year and sequence,
+     * the year being 0 if the template has no {@code {yy}} field.
+     *
+     * @throws IllegalArgumentException if the identifier does not follow the template or its check digit is wrong
+     */
+    public ParsedId parse(String identifier, String prefix) {
+        if (identifier == null) {
+            throw new IllegalArgumentException("Invalid Paradygm ID: null");
+        }
+        String actualPrefix = prefix != null ? prefix : "";
+        int position = 0;
+        long year = 0;
+        long sequence = 0;
+        for (Segment segment : segments) {
+            switch (segment.kind) {
+                case LITERAL:
+                    position = expect(identifier, position, segment.literal);
+                    break;
+                case PREFIX:
+                    if (!identifier.startsWith(actualPrefix, position)) {
+                        throw new IllegalArgumentException("Invalid Paradygm ID: " + identifier + " does not contain prefix "
+                                + actualPrefix);
+                    }
+                    position += actualPrefix.length();
+                    break;
+                case YEAR:
+                case SEQUENCE:
+                    long value = 0;
+                    int end = position;
+                    if (segment.width > 0) {
+                        end += segment.fixedLength;
+                        if (end > identifier.length()) {
+                            throw invalid(identifier);
+                        }
+                        value = parseFixed(identifier, position, segment);
+                    } else if (segment.grouped) {
+                        end = groupedEnd(identifier, position);
+                        value = parseGrouped(identifier, position, end);
+                    } else {
+                        for (; end < identifier.length(); end++) {
+                            char c = identifier.charAt(end);
+                            if (c < '0' || c > '9') {
+                                break;
+                            }
+                            value = value * 10 + (c - '0');
+                        }
+                        if (end == position || end - position > MAX_DIGITS) {
+                            throw invalid(identifier);
+                        }
+                    }
+                    position = end;
+                    if (segment.kind == YEAR) {
+                        year = value;
+                    } else {
+                        sequence = value;
+                    }
+                    break;
+                default:
+                    if (position >= identifier.length()
+                            || identifier.charAt(position) - '0' != luhn(identifier, 0, position)) {
+                        throw new IllegalArgumentException("Invalid Paradygm ID: " + identifier + " has a wrong check digit");
+                    }
+                    position++;
+            }
+        }
+        if (position != identifier.length() || year > Integer.MAX_VALUE) {
+            throw invalid(identifier);
+        }
+        return new ParsedId((int) year, sequence);
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    private static void appendNumber(StringBuilder buffer, long value, Segment segment) {
+        if (value < 0 || value >= POWERS_OF_TEN[segment.width > 0 ? segment.width : MAX_DIGITS]) {
+            throw new IllegalArgumentException("Value " + value + " does not fit field {" + segment.name() + "}");
+        }
+        int length = segment.width;
+        if (length == 0) {
+            length = 1;
+            while (value >= POWERS_OF_TEN[length]) {
+                length++;
+            }
+        }
+        // fill from the right, dividing by a constant is much cheaper than by a power of ten
+        int position = buffer.length() + length + (segment.grouped ? (length - 1) / 3 : 0);
+        buffer.setLength(position);
+        for (int i = 0; i < length; i++) {
+            if (segment.grouped && i > 0 && i % 3 == 0) {
+                buffer.setCharAt(--position, '-');
+            }
+            buffer.setCharAt(--position, (char) ('0' + value % 10));
+            value /= 10;
+        }
+    }
+
+    /**
+     * Parses a number with a width, which must have its hyphens exactly where formatting puts them.
+     */
+    private static long parseFixed(String identifier, int start, Segment segment) {
+        boolean[] hyphens = segment.hyphens;
+        long value = 0;
+        for (int i = 0; i < hyphens.length; i++) {
+            char c = identifier.charAt(start + i);
+            if (hyphens[i]) {
+                if (c != '-') {
+                    throw invalid(identifier);
+                }
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else {
+                throw invalid(identifier);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the end of a grouped number without a width, which takes hyphens between digits
+     */
+    private static int groupedEnd(String identifier, int start) {
+        int end = start;
+        while (end < identifier.length()) {
+            char c = identifier.charAt(end);
+            if ((c < '0' || c > '9') && !(c == '-' && end > start && end + 1 < identifier.length()
+                    && identifier.charAt(end + 1) >= '0' && identifier.charAt(end + 1) <= '9')) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Parses the digits of a grouped number without a width, which must be grouped by three from the right.
+     */
+    private static long parseGrouped(String identifier, int start, int end) {
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            if (identifier.charAt(i) != '-') {
+                digits++;
+            }
+        }
+        if (digits == 0 || digits > MAX_DIGITS) {
+            throw invalid(identifier);
+        }
+        long value = 0;
+        int seen = 0;
+        for (int i = start; i < end; i++) {
+            char c = identifier.charAt(i);
+            boolean hyphenDue = seen > 0 && (digits - seen) % 3 == 0 && identifier.charAt(i - 1) != '-';
+            if (hyphenDue != (c == '-')) {
+                throw invalid(identifier);
+            }
+            if (c != '-') {
+                value = value * 10 + (c - '0');
+                seen++;
+            }
+        }
+        return value;
+    }
+
+    private static int countDigits(String text) {
+        int digits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                digits++;
+            }
+        }
+        return digits;
+    }
+
+    private static IllegalArgumentException invalid(String identifier) {
+        return new IllegalArgumentException("Invalid Paradygm ID: " + identifier);
+    }
+
+    private static int expect(String identifier, int position, String literal) {
+        if (!identifier.startsWith(literal, position)) {
+            throw invalid(identifier);
+        }
+        return position + literal.length();
+    }
+
+    /**
+     * @return the Luhn check digit of the digits between start and end, skipping anything else
+     */
+    static int luhn(CharSequence text, int start, int end) {
+        int sum = 0;
+        boolean doubled = true;
+        for (int i = end - 1; i >= start; i--) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            int digit = c - '0';
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    private static long[] powersOfTen() {
+        long[] powers = new long[MAX_DIGITS + 1];
+        powers[0] = 1;
+        for (int i = 1; i < powers.length; i++) {
+            powers[i] = powers[i - 1] * 10;
+        }
+        return powers;
+    }
+
+    private static final class Segment {
+
+        final int kind;
+
+        final String literal;
+
+        final int width;
+
+        final boolean grouped;
+
+        /**
+         * The number of characters a number with a width takes, hyphens included.
+         */
+        final int fixedLength;
+
+        /**
+         * Which of those characters are hyphens.
+         */
+        final boolean[] hyphens;
+
+        private Segment(int kind, String literal, int width, boolean grouped) {
+            this.kind = kind;
+            this.literal = literal;
+            this.width = width;
+            this.grouped = grouped;
+            this.fixedLength = grouped ? width + (width - 1) / 3 : width;
+            this.hyphens = new boolean[fixedLength];
+            for (int i = 0, position = 0; i < width; i++, position++) {
+                if (grouped && i > 0 && (width - i) % 3 == 0) {
+                    hyphens[position++] = true;
+                }
+            }
+        }
+
+        static Segment literal(String text) {
+            return new Segment(LITERAL, text, 0, false);
+        }
+
+        static Segment field(String field, String template) {
+            String[] options = field.split(",", -1);
+            String name = options[0];
+            int width = 0;
+            int colon = name.indexOf(':');
+            if (colon >= 0) {
+                try {
+                    width = Integer.parseInt(name.substring(colon + 1).trim());
+                } catch (NumberFormatException e) {
+                    width = -1;
+                }
+                name = name.substring(0, colon);
+            }
+            name = name.trim();
+            boolean grouped = false;
+            for (int i = 1; i < options.length; i++) {
+                if (!"group3".equals(options[i].trim())) {
+                    throw new IllegalArgumentException("Unknown option '" + options[i] + "' of field {" + field
+                            + "} in Paradygm ID template " + template);
+                }
+                grouped = true;
+            }
+            int kind;
+            if ("prefix".equals(name)) {
+                kind = PREFIX;
+            } else if ("yy".equals(name)) {
+                kind = YEAR;
+            } else if ("seq".equals(name)) {
+                kind = SEQUENCE;
+            } else if ("luhn".equals(name)) {
+                kind = LUHN;
+            } else {
+                throw new IllegalArgumentException("Unknown field {" + field + "} in Paradygm ID template " + template);
+            }
+            boolean number = kind == YEAR || kind == SEQUENCE;
+            if ((colon >= 0 && (!number || width < 1 || width > MAX_DIGITS)) || (grouped && kind != SEQUENCE)) {
+                throw new IllegalArgumentException("Invalid field {" + field + "} in Paradygm ID template " + template
+                        + ", only {yy} and {seq} take a width of 1 to " + MAX_DIGITS + " and only {seq} can be grouped");
+            }
+            return new Segment(kind, null, width, grouped);
+        }
+
+        boolean isNumber() {
+            return kind == YEAR || kind == SEQUENCE;
+        }
+
+        /**
+         * Whether this segment can directly follow a number without a width.
+         */
+        boolean canEndNumber(boolean grouped) {
+            if (kind != LITERAL) {
+                return kind == PREFIX;
+            }
+            char first = literal.charAt(0);
+            return (first < '0' || first > '9') && !(grouped && first == '-');
+        }
+
+        String name() {
+            switch (kind) {
+                case PREFIX:
+                    return "prefix";
+                case YEAR:
+                    return "yy";
+                case SEQUENCE:
+                    return "seq";
+                default:
+                    return "luhn";
+            }
+        }
+    }
+}
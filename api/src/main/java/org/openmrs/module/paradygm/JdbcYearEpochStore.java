@@ -0,0 +1,217 @@
+package org.openmrs.module.paradygm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.openmrs.api.APIException;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link YearEpochStore} in the {@code paradygm_identifier_epoch} table, updated with optimistic locking on its
+ * {@code version} column.
+ *
+ * Every statement runs on its own auto-committed connection rather than in the transaction of the registration
+ * that triggered it, so the other nodes see a rollover as soon as it happens and a row lock is never held while a
+ * patient is saved.
+ */
+public class JdbcYearEpochStore implements YearEpochStore {
+
+    static final String TABLE = "paradygm_identifier_epoch";
+
+    private static final int MAX_ATTEMPTS = 10;
+
+    private static final String SQL_STATE_INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+    private static final Logger log = LoggerFactory.getLogger(JdbcYearEpochStore.class);
+
+    private final ConnectionSource connectionSource;
+
+    public JdbcYearEpochStore(ConnectionSource connectionSource) {
+        this.connectionSource = connectionSource;
+    }
+
+    /**
+     * @return a store on connections of the connection pool of the OpenMRS session factory
+     */
+    public static JdbcYearEpochStore forSessionFactory(DbSessionFactory sessionFactory) {
+        final ConnectionProvider connectionProvider = ((SessionFactoryImplementor) sessionFactory
+                .getHibernateSessionFactory()).getServiceRegistry().getService(ConnectionProvider.class);
+        return new JdbcYearEpochStore(new ConnectionSource() {
+
+            @Override
+            public Connection getConnection() throws SQLException {
+                return connectionProvider.getConnection();
+            }
+
+            @Override
+            public void release(Connection connection) throws SQLException {
+                connectionProvider.closeConnection(connection);
+            }
+        });
+    }
+
+    @Override
+    public Integer getYear(String sourceUuid) {
+        return execute(connection -> {
+            Epoch epoch = select(connection, sourceUuid);
+            return epoch != null ? epoch.year : null;
+        });
+    }
+
+    @Override
+    public int initialize(String sourceUuid, int year) {
+        return execute(connection -> {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                Epoch epoch = select(connection, sourceUuid);
+                if (epoch != null) {
+                    return epoch.year;
+                }
+                if (insert(connection, sourceUuid, year)) {
+                    return year;
+                }
+            }
+            throw new APIException("Unable to store the Paradygm ID year of identifier source " + sourceUuid);
+        });
+    }
+
+    @Override
+    public boolean advance(String sourceUuid, int year) {
+        return execute(connection -> {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                Epoch epoch = select(connection, sourceUuid);
+                if (epoch == null) {
+                    if (insert(connection, sourceUuid, year)) {
+                        return true;
+                    }
+                } else if (epoch.year == year) {
+                    return false;
+                } else if (update(connection, sourceUuid, epoch.version, year)) {
+                    return true;
+                }
+                // another node changed the row since it was read
+                log.debug("Paradygm ID year of identifier source {} changed concurrently, retrying", sourceUuid);
+            }
+            throw new APIException("Unable to move the Paradygm ID year of identifier source " + sourceUuid + " to "
+                    + year + " after " + MAX_ATTEMPTS + " attempts");
+        });
+    }
+
+    @Override
+    public boolean revert(String sourceUuid, int year, int previousYear) {
+        return execute(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("update " + TABLE
+                    + " set epoch_year = ?, version = version + 1, date_changed = ? where source_uuid = ? and epoch_year = ?")) {
+                statement.setInt(1, previousYear);
+                statement.setTimestamp(2, now());
+                statement.setString(3, sourceUuid);
+                statement.setInt(4, year);
+                return statement.executeUpdate() == 1;
+            }
+        });
+    }
+
+    private Epoch select(Connection connection, String sourceUuid) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("select epoch_year, version from " + TABLE
+                + " where source_uuid = ?")) {
+            statement.setString(1, sourceUuid);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? new Epoch(resultSet.getInt(1), resultSet.getInt(2)) : null;
+            }
+        }
+    }
+
+    /**
+     * @return false if another node inserted the row first
+     */
+    private boolean insert(Connection connection, String sourceUuid, int year) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("insert into " + TABLE
+                + " (source_uuid, epoch_year, version, date_changed) values (?, ?, 0, ?)")) {
+            statement.setString(1, sourceUuid);
+            statement.setInt(2, year);
+            statement.setTimestamp(3, now());
+            statement.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith(SQL_STATE_INTEGRITY_CONSTRAINT_VIOLATION)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return false if the row no longer has the given version
+     */
+    private boolean update(Connection connection, String sourceUuid, int version, int year) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("update " + TABLE
+                + " set epoch_year = ?, version = version + 1, date_changed = ? where source_uuid = ? and version = ?")) {
+            statement.setInt(1, year);
+            statement.setTimestamp(2, now());
+            statement.setString(3, sourceUuid);
+            statement.setInt(4, version);
+            return statement.executeUpdate() == 1;
+        }
+    }
+
+    private <T> T execute(SqlWork<T> work) {
+        Connection connection = null;
+        try {
+            connection = connectionSource.getConnection();
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(true);
+            try {
+                return work.execute(connection);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new APIException("Unable to access the Paradygm ID year in " + TABLE, e);
+        } finally {
+            if (connection != null) {
+                try {
+                    connectionSource.release(connection);
+                } catch (SQLException e) {
+                    log.warn("Unable to release connection", e);
+                }
+            }
+        }
+    }
+
+    private static Timestamp now() {
+        return new Timestamp(System.currentTimeMillis());
+    }
+
+    /**
+     * Hands out the JDBC connections the store runs its statements on.
+     */
+    public interface ConnectionSource {
+
+        Connection getConnection() throws SQLException;
+
+        void release(Connection connection) throws SQLException;
+    }
+
+    private interface SqlWork<T> {
+
+        T execute(Connection connection) throws SQLException;
+    }
+
+    private static final class Epoch {
+
+        private final int year;
+
+        private final int version;
+
+        Epoch(int year, int version) {
+            this.year = year;
+            this.version = version;
+        }
+    }
+}
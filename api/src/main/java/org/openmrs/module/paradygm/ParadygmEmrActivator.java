@@ -13,17 +13,63 @@
  */
 package org.openmrs.module.paradygm;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
 import org.openmrs.module.ModuleActivator;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.duplicate.DuplicatePatientCheck;
+import org.openmrs.module.paradygm.duplicate.DuplicatePatientIndex;
+import org.openmrs.module.paradygm.duplicate.DuplicatePatientIndexRebuild;
+import org.openmrs.module.paradygm.event.PatientSaveEventQueue;
+import org.openmrs.module.paradygm.lookup.IdentifierIndexBackfill;
+import org.openmrs.module.paradygm.lookup.IdentifierIndexHandler;
+import org.openmrs.module.paradygm.lookup.IdentifierLookupDao;
+import org.openmrs.module.paradygm.lookup.IdentifierLookupIndex;
+import org.openmrs.module.paradygm.reformat.IdentifierReformatTask;
+import org.openmrs.module.paradygm.reformat.IdentifierReformatter;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * This class contains the logic that is run every time this module is either started or shutdown
  */
-public class ParadygmEmrActivator implements ModuleActivator {
+public class ParadygmEmrActivator implements ModuleActivator, DaemonTokenAware {
+
+	private static final long POST_SAVE_DRAIN_TIMEOUT_MILLIS = 30000;
+
+	private static final long REFORMAT_TASK_REPEAT_INTERVAL_SECONDS = 24 * 60 * 60;
+
+	private static volatile DaemonToken daemonToken;
 
 	protected Log log = LogFactory.getLog(getClass());
 
+	/**
+	 * @return the token background work of this module uses to run as the daemon user, null before the module
+	 *         has been started
+	 */
+	public static DaemonToken getDaemonToken() {
+		return daemonToken;
+	}
+
+	/**
+	 * @see DaemonTokenAware#setDaemonToken(DaemonToken)
+	 */
+	@Override
+	public void setDaemonToken(DaemonToken token) {
+		daemonToken = token;
+	}
+
 	/**
 	 * @see ModuleActivator#willRefreshContext()
 	 */
@@ -35,6 +81,8 @@ public class ParadygmEmrActivator implements ModuleActivator {
 	 * @see ModuleActivator#contextRefreshed()
 	 */
 	public void contextRefreshed() {
+		IdentifierSourceCache.getInstance().invalidateAll();
+		IdentifierEnhancementRegistry.getInstance().invalidate();
 		log.info("Paradygm Module refreshed");
 	}
 
@@ -49,6 +97,14 @@ public class ParadygmEmrActivator implements ModuleActivator {
 	 * @see ModuleActivator#started()
 	 */
 	public void started() {
+		configureIdentifierFormat();
+		configureIdentifierSources();
+		configureBlockAllocation();
+		loadUserRoleMapping();
+		configureDuplicateCheck();
+		startPostSaveQueue();
+		backfillIdentifierLookupIndex();
+		registerReformatTask();
 		log.info("Paradygm Module started");
 	}
 
@@ -57,12 +113,186 @@ public class ParadygmEmrActivator implements ModuleActivator {
 	 */
 	public void willStop() {
 		log.info("Stopping Paradgym Module");
+		drainPostSaveQueue();
+		releaseReservedIdentifiers();
 	}
 
 	/**
 	 * @see ModuleActivator#stopped()
 	 */
 	public void stopped() {
+		Context.getAdministrationService().removeGlobalPropertyListener(IdentifierBlockAllocator.getInstance());
+		Context.getAdministrationService().removeGlobalPropertyListener(UserRoleMappingLoader.getInstance());
+		Context.getAdministrationService().removeGlobalPropertyListener(DuplicatePatientCheck.getInstance());
+		DuplicatePatientCheck.getInstance().setOnEnabled(null);
+		PatientSaveEventQueue.getInstance().shutdown();
 		log.info("Paradygm Module stopped");
 	}
+
+	private void configureIdentifierFormat() {
+		String format = Context.getAdministrationService().getGlobalProperty(ParadygmIdFormatter.GP_FORMAT);
+		IdentifierTemplate template = IdentifierTemplate.DEFAULT;
+		if (StringUtils.isNotBlank(format)) {
+			try {
+				template = IdentifierTemplate.compile(format.trim());
+			}
+			catch (IllegalArgumentException e) {
+				log.error("Ignoring invalid " + ParadygmIdFormatter.GP_FORMAT + ", using " + template + ": " + e.getMessage());
+			}
+		}
+		// the IDs issued under earlier templates keep their layout and must still be recognised
+		String history = Context.getAdministrationService().getGlobalProperty(ParadygmIdFormatter.GP_FORMAT_HISTORY);
+		List<IdentifierTemplate> earlier = new ArrayList<IdentifierTemplate>();
+		boolean recorded = false;
+		if (StringUtils.isNotBlank(history)) {
+			for (String line : history.split("\\r?\\n")) {
+				if (StringUtils.isBlank(line)) {
+					continue;
+				}
+				if (line.trim().equals(template.getTemplate())) {
+					recorded = true;
+					continue;
+				}
+				try {
+					earlier.add(IdentifierTemplate.compile(line.trim()));
+				}
+				catch (IllegalArgumentException e) {
+					log.warn("Ignoring invalid template in " + ParadygmIdFormatter.GP_FORMAT_HISTORY + ": " + e.getMessage());
+				}
+			}
+		}
+		if (!recorded) {
+			Context.getAdministrationService().setGlobalProperty(ParadygmIdFormatter.GP_FORMAT_HISTORY,
+			    StringUtils.isBlank(history) ? template.getTemplate() : history.trim() + "\n" + template.getTemplate());
+		}
+		ParadygmIdFormatter.getInstance().setTemplate(template, earlier);
+		log.info("Paradygm IDs are formatted as " + template + ", " + earlier.size() + " earlier templates are still parsed");
+	}
+
+	private void configureIdentifierSources() {
+		IdentifierEnhancementRegistry registry = IdentifierEnhancementRegistry.getInstance();
+		registry.configure(
+		    Context.getAdministrationService().getGlobalProperty(IdentifierEnhancementRegistry.GP_IDENTIFIER_SOURCES));
+		try {
+			registry.setYearEpochStore(
+			    JdbcYearEpochStore.forSessionFactory(Context.getRegisteredComponent("dbSessionFactory", DbSessionFactory.class)));
+		}
+		catch (Exception e) {
+			log.error("Unable to share the Paradygm ID year through the database, year changes are decided by this node only", e);
+			registry.setYearEpochStore(null);
+		}
+		try {
+			final IdentifierEnhancementWarmup warmup = new IdentifierEnhancementWarmup(
+			        Context.getService(IdentifierSourceService.class),
+			        Context.getRegisteredComponent("paradygm.identifierLookupDao", IdentifierLookupDao.class));
+			// not read only, the warmup stores the year of sources the other nodes do not know yet
+			TransactionTemplate transactionTemplate = new TransactionTemplate(
+			        Context.getRegisteredComponent("transactionManager", PlatformTransactionManager.class));
+			transactionTemplate.execute(status -> warmup.warm());
+			log.info("Paradygm identifier enhancement enabled for sources " + registry.getSourceUuids());
+		}
+		catch (Exception e) {
+			log.error("Unable to resolve Paradygm identifier sources, they will be resolved on first use", e);
+		}
+	}
+
+	private void configureBlockAllocation() {
+		IdentifierBlockAllocator allocator = IdentifierBlockAllocator.getInstance();
+		allocator.setTransactionManager(Context.getRegisteredComponent("transactionManager", PlatformTransactionManager.class));
+		allocator.load(Context.getAdministrationService().getGlobalProperty(IdentifierBlockAllocator.GP_BLOCK_SIZE));
+		Context.getAdministrationService().addGlobalPropertyListener(allocator);
+	}
+
+	private void loadUserRoleMapping() {
+		UserRoleMappingLoader loader = UserRoleMappingLoader.getInstance();
+		loader.load(Context.getAdministrationService().getGlobalProperty(UserRoleMappingLoader.GP_USER_ROLES));
+		Context.getAdministrationService().addGlobalPropertyListener(loader);
+	}
+
+	private void configureDuplicateCheck() {
+		DuplicatePatientCheck check = DuplicatePatientCheck.getInstance();
+		check.load(Context.getAdministrationService().getGlobalProperty(DuplicatePatientCheck.GP_MODE));
+		// from now on turning the check on through the global property fills the index
+		check.setOnEnabled(this::rebuildDuplicatePatientIndex);
+		Context.getAdministrationService().addGlobalPropertyListener(check);
+		if (check.isEnabled() && !DuplicatePatientIndex.getInstance().isRebuilt()) {
+			rebuildDuplicatePatientIndex();
+		}
+	}
+
+	private void rebuildDuplicatePatientIndex() {
+		if (daemonToken == null) {
+			log.warn("No daemon token available, the Paradygm duplicate check only knows patients saved from now on");
+			return;
+		}
+		try {
+			Daemon.runInDaemonThread(new DuplicatePatientIndexRebuild(), daemonToken);
+		}
+		catch (Exception e) {
+			log.error("Unable to start filling the Paradygm duplicate patient index", e);
+		}
+	}
+
+	private void startPostSaveQueue() {
+		PatientSaveEventQueue queue = PatientSaveEventQueue.getInstance();
+		queue.addHandler(new IdentifierIndexHandler());
+		queue.start();
+	}
+
+	private void drainPostSaveQueue() {
+		if (!PatientSaveEventQueue.getInstance().drain(POST_SAVE_DRAIN_TIMEOUT_MILLIS)) {
+			log.warn("Paradygm post-save events were still being handled when the module stopped");
+		}
+	}
+
+	private void backfillIdentifierLookupIndex() {
+		if (IdentifierLookupIndex.getInstance().isBackfilled()) {
+			return;
+		}
+		if (daemonToken == null) {
+			log.warn("No daemon token available, not backfilling the Paradygm identifier lookup index");
+			return;
+		}
+		try {
+			Daemon.runInDaemonThread(new IdentifierIndexBackfill(), daemonToken);
+		}
+		catch (Exception e) {
+			log.error("Unable to start backfilling the Paradygm identifier lookup index", e);
+		}
+	}
+
+	/**
+	 * Adds the definition of the identifier reformat task, which is left to administrators to schedule.
+	 */
+	private void registerReformatTask() {
+		try {
+			SchedulerService schedulerService = Context.getSchedulerService();
+			if (schedulerService.getTaskByName(IdentifierReformatTask.TASK_NAME) != null) {
+				return;
+			}
+			TaskDefinition task = new TaskDefinition();
+			task.setName(IdentifierReformatTask.TASK_NAME);
+			task.setDescription("Rewrites Paradygm identifiers that were never enhanced into the Paradygm ID format");
+			task.setTaskClass(IdentifierReformatTask.class.getName());
+			task.setStartOnStartup(false);
+			task.setRepeatInterval(REFORMAT_TASK_REPEAT_INTERVAL_SECONDS);
+			task.setProperty(IdentifierReformatTask.PROPERTY_BATCH_SIZE,
+			    String.valueOf(IdentifierReformatter.DEFAULT_BATCH_SIZE));
+			task.setProperty(IdentifierReformatTask.PROPERTY_MAX_PER_SECOND,
+			    String.valueOf(IdentifierReformatter.DEFAULT_MAX_PER_SECOND));
+			schedulerService.saveTaskDefinition(task);
+		}
+		catch (Exception e) {
+			log.warn("Unable to register the " + IdentifierReformatTask.TASK_NAME + " task", e);
+		}
+	}
+
+	private void releaseReservedIdentifiers() {
+		try {
+			IdentifierBlockAllocator.getInstance().release(Context.getService(IdentifierSourceService.class));
+		}
+		catch (Exception e) {
+			log.error("Unable to release reserved Paradygm identifiers", e);
+		}
+	}
 }
\ No newline at end of file
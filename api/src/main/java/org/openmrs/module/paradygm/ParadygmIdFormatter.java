@@ -0,0 +1,250 @@
+package org.openmrs.module.paradygm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Formats and parses Paradygm IDs without going through regular expressions or intermediate strings.
+ *
+ * The layout of a Paradygm ID is the {@link IdentifierTemplate} configured through {@value #GP_FORMAT} when the
+ * module starts. The default is the identifier source prefix, the year and the sequence padded to six digits
+ * with a hyphen before every group of three, e.g. prefix {@code PDG200-}, year 25 and sequence 1 gives
+ * {@code PDG200-25-000-001}. Formatting writes into a per-thread buffer that is reused across calls, so the only
+ * allocation is the returned String.
+ *
+ * IDs keep the layout they were issued with, so parsing also accepts the templates configured before, which the
+ * module keeps in {@value #GP_FORMAT_HISTORY}, and always the default template.
+ *
+ * Instances are thread-safe; use {@link #getInstance()}.
+ */
+public class ParadygmIdFormatter {
+
+    public static final String GP_FORMAT = "paradygm.identifier.format";
+
+    public static final String GP_FORMAT_HISTORY = "paradygm.identifier.formatHistory";
+
+    private static final ParadygmIdFormatter INSTANCE = new ParadygmIdFormatter();
+
+    private static final int MAX_DIGITS = 19;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(32));
+
+    private volatile IdentifierTemplate template = IdentifierTemplate.DEFAULT;
+
+    /**
+     * The current template first, then the earlier ones.
+     */
+    private volatile List<IdentifierTemplate> templates = Collections.singletonList(IdentifierTemplate.DEFAULT);
+
+    public static ParadygmIdFormatter getInstance() {
+        return INSTANCE;
+    }
+
+    public IdentifierTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the current template followed by the earlier ones parsing still accepts
+     */
+    public List<IdentifierTemplate> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * Changes the layout of the Paradygm IDs issued from now on, forgetting earlier templates other than the
+     * default one.
+     */
+    public void setTemplate(IdentifierTemplate template) {
+        setTemplate(template, Collections.<IdentifierTemplate> emptyList());
+    }
+
+    /**
+     * Changes the layout of the Paradygm IDs issued from now on. IDs issued before under one of the earlier
+     * templates or the default one are still recognised by {@link #parse(String, String)}.
+     */
+    public void setTemplate(IdentifierTemplate template, Collection<IdentifierTemplate> earlier) {
+        IdentifierTemplate current = template != null ? template : IdentifierTemplate.DEFAULT;
+        List<IdentifierTemplate> all = new ArrayList<>(earlier.size() + 2);
+        all.add(current);
+        for (IdentifierTemplate candidate : earlier) {
+            addTemplate(all, candidate);
+        }
+        addTemplate(all, IdentifierTemplate.DEFAULT);
+        this.templates = Collections.unmodifiableList(all);
+        this.template = current;
+    }
+
+    /**
+     * @return the largest sequence a Paradygm ID can hold within a year
+     */
+    public long getMaxSequence() {
+        return template.getMaxSequence();
+    }
+
+    /**
+     * @param prefix the identifier source prefix, may be empty but not null
+     * @param year two digit year the identifier was issued in
+     * @param sequence the sequence value within that year
+     * @return the formatted Paradygm ID
+     * @throws IllegalArgumentException if the sequence is larger than {@link #getMaxSequence()}
+     */
+    public String format(String prefix, int year, long sequence) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        appendTo(buffer, prefix, year, sequence);
+        return buffer.toString();
+    }
+
+    /**
+     * Appends the formatted Paradygm ID to the given buffer.
+     */
+    public void appendTo(StringBuilder buffer, String prefix, int year, long sequence) {
+        template.appendTo(buffer, prefix, year, sequence);
+    }
+
+    /**
+     * Parses the raw sequence number out of an un-enhanced identifier as issued by idgen, i.e. the digits
+     * following the first occurrence of the prefix.
+     *
+     * @throws IllegalArgumentException if the prefix is missing or is not followed by a number
+     */
+    public long parseSequence(String identifier, String prefix) {
+        return parseDigits(identifier, digitsStart(identifier, prefix));
+    }
+
+    /**
+     * Parses a formatted Paradygm ID back into its year and sequence, trying the current template first and then
+     * the earlier ones.
+     *
+     * @throws IllegalArgumentException if the identifier does not follow any of the templates
+     */
+    public ParsedId parse(String identifier, String prefix) {
+        List<IdentifierTemplate> candidates = templates;
+        IllegalArgumentException failure = null;
+        for (IdentifierTemplate candidate : candidates) {
+            try {
+                return candidate.parse(identifier, prefix);
+            } catch (IllegalArgumentException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Parses an identifier that is a Paradygm ID exactly as {@link #format(String, int, long)} writes it with the
+     * current or one of the earlier templates.
+     *
+     * @return the year and sequence, or null for anything else, such as an identifier that was never enhanced
+     */
+    public ParsedId parseFormatted(String identifier, String prefix) {
+        for (IdentifierTemplate candidate : templates) {
+            ParsedId parsed;
+            try {
+                parsed = candidate.parse(identifier, prefix);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            StringBuilder buffer = BUFFER.get();
+            buffer.setLength(0);
+            candidate.appendTo(buffer, prefix, parsed.getYear(), parsed.getSequence());
+            if (identifier.contentEquals(buffer)) {
+                return parsed;
+            }
+        }
+        return null;
+    }
+
+    private static void addTemplate(List<IdentifierTemplate> templates, IdentifierTemplate template) {
+        for (IdentifierTemplate known : templates) {
+            if (known.getTemplate().equals(template.getTemplate())) {
+                return;
+            }
+        }
+        templates.add(template);
+    }
+
+    private int digitsStart(String identifier, String prefix) {
+        if (identifier == null) {
+            throw new IllegalArgumentException("Invalid Paradygm ID: null");
+        }
+        if (prefix == null || prefix.isEmpty()) {
+            return 0;
+        }
+        int index = identifier.indexOf(prefix);
+        if (index < 0) {
+            throw new IllegalArgumentException("Invalid Paradygm ID: " + identifier + " does not contain prefix " + prefix);
+        }
+        return index + prefix.length();
+    }
+
+    private long parseDigits(String identifier, int start) {
+        long value = 0;
+        int digits = 0;
+        for (int i = start; i < identifier.length(); i++) {
+            char c = identifier.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIGITS - 1) {
+                    throw new IllegalArgumentException("Invalid Paradygm ID: " + identifier + " is too long");
+                }
+                value = value * 10 + (c - '0');
+            } else {
+                throw new IllegalArgumentException("Invalid Paradygm ID: " + identifier);
+            }
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("Invalid Paradygm ID: " + identifier);
+        }
+        return value;
+    }
+
+    /**
+     * The year and sequence a Paradygm ID was issued with.
+     */
+    public static final class ParsedId {
+
+        private final int year;
+
+        private final long sequence;
+
+        public ParsedId(int year, long sequence) {
+            this.year = year;
+            this.sequence = sequence;
+        }
+
+        public int getYear() {
+            return year;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ParsedId)) {
+                return false;
+            }
+            ParsedId other = (ParsedId) o;
+            return year == other.year && sequence == other.sequence;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * year + Long.hashCode(sequence);
+        }
+
+        @Override
+        public String toString() {
+            return "ParsedId{year=" + year + ", sequence=" + sequence + "}";
+        }
+    }
+}
@@ -1,9 +1,18 @@
 package org.openmrs.module.paradygm;
 
-import org.openmrs.Role;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.PreDestroy;
+
 import org.openmrs.User;
 import org.openmrs.UserSessionListener;
-import org.openmrs.api.context.Context;
+import org.openmrs.module.paradygm.metrics.ParadygmMetrics;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
@@ -11,38 +20,115 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of UserSessionListener for assigning appropriate roles
- * to users in the Paradygm EMR system upon login
+ * to users in the Paradygm EMR system upon login.
+ *
+ * The roles of each username come from the {@link UserRoleMapping} maintained by {@link UserRoleMappingLoader}.
+ * Users found to have their roles are remembered in a bounded cache until their account or the mapping changes,
+ * so repeated logins do no role checks at all. Missing roles are granted asynchronously by a
+ * {@link UserRoleAssignmentWorker} and never on the login thread.
  */
 @Component
 @Qualifier("paradygmMetadataUserListener")
 public class ParadygmMetadataUserListener implements UserSessionListener {
     private static final Logger log = LoggerFactory.getLogger(ParadygmMetadataUserListener.class);
 
+    static final int MAX_VERIFIED_USERS = 1024;
+
+    private final Map<Integer, VerifiedUser> verifiedUsers = Collections.synchronizedMap(
+            new LinkedHashMap<Integer, VerifiedUser>(64, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, VerifiedUser> eldest) {
+                    return size() > MAX_VERIFIED_USERS;
+                }
+            });
+
+    private final UserRoleAssignmentWorker roleAssignmentWorker;
+
+    public ParadygmMetadataUserListener() {
+        this(new UserRoleAssignmentWorker());
+    }
+
+    ParadygmMetadataUserListener(UserRoleAssignmentWorker roleAssignmentWorker) {
+        this.roleAssignmentWorker = roleAssignmentWorker;
+    }
+
     @Override
     public void loggedInOrOut(User user, Event event, Status status) {
+        if (event != Event.LOGIN) {
+            return;
+        }
+        long start = System.nanoTime();
         try {
-            if (event == Event.LOGIN) {
-                String username = user.getUsername();
-                String roleName = ParadygmMetadataConstants.USER_ROLES.get(username);
-                if (roleName != null) {
-                    Role paradigmRole = Context.getUserService().getRole(roleName);
-                    verifyUserRole(user, paradigmRole);
-                } else {
-                    log.debug("User: '{}' is not a Paradygm EMR user, skipping role assignment", user.getUsername());
-                }
+            String username = user.getUsername();
+            UserRoleMapping mapping = UserRoleMappingLoader.getInstance().getMapping();
+            Set<String> roleNames = mapping.getRoles(username);
+            if (!roleNames.isEmpty()) {
+                verifyUserRoles(user, mapping, roleNames);
+            } else {
+                log.debug("User: '{}' is not a Paradygm EMR user, skipping role assignment", username);
             }
         } catch (Exception e) {
             log.error("Unable to assign Paradygm EMR user corresponding role", e);
+        } finally {
+            ParadygmMetrics.getInstance().recordLogin(start);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        roleAssignmentWorker.shutdown();
+    }
+
+    private void verifyUserRoles(User user, UserRoleMapping mapping, Set<String> roleNames) {
+        VerifiedUser verified = new VerifiedUser(mapping, user.getDateChanged());
+        if (verified.equals(verifiedUsers.get(user.getUserId()))) {
+            return;
+        }
+        Set<String> missingRoles = null;
+        for (String roleName : roleNames) {
+            if (!user.hasRole(roleName)) {
+                if (missingRoles == null) {
+                    missingRoles = new LinkedHashSet<>();
+                }
+                missingRoles.add(roleName);
+            }
+        }
+        if (missingRoles == null) {
+            verifiedUsers.put(user.getUserId(), verified);
+            log.debug("Paradygm EMR user: '{}' already has roles: {}. Skipping...", user.getUsername(), roleNames);
+        } else if (roleAssignmentWorker.grant(user.getUserId(), missingRoles)) {
+            ParadygmMetrics.getInstance().recordRoleGrant();
+            log.debug("Queued granting Paradygm EMR user: '{}' roles: {}", user.getUsername(), missingRoles);
         }
     }
 
-    private void verifyUserRole(User user, Role role) {
-        if (!user.hasRole(role.getRole())) {
-            user.addRole(role);
-            Context.getUserService().saveUser(user);
-            log.debug("Granted Paradygm EMR user: '{}' role: '{}'", user.getUsername(), role.getRole());
-        } else {
-            log.debug("Paradygm EMR user: '{}' already has role: '{}'. Skipping...", user.getUsername(), role.getRole());
+    /**
+     * Marks a user as having all roles of a mapping, valid until the account or the mapping changes.
+     */
+    private static final class VerifiedUser {
+
+        private final UserRoleMapping mapping;
+
+        private final Date dateChanged;
+
+        VerifiedUser(UserRoleMapping mapping, Date dateChanged) {
+            this.mapping = mapping;
+            this.dateChanged = dateChanged;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof VerifiedUser)) {
+                return false;
+            }
+            VerifiedUser other = (VerifiedUser) o;
+            return mapping == other.mapping && Objects.equals(dateChanged, other.dateChanged);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(mapping), dateChanged);
         }
     }
-}
\ No newline at end of file
+}
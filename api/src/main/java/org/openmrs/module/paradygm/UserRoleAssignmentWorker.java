@@ -0,0 +1,109 @@
+package org.openmrs.module.paradygm;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.api.UserService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Grants Paradygm EMR roles off the login thread. Requests are de-duplicated per user, so a shared account
+ * logging in many times at once results in a single {@code saveUser}, and are executed one at a time as the
+ * daemon user. Roles are loaded by name, their primary key, in the session of every grant, so no entity is ever
+ * used outside the session it came from.
+ */
+public class UserRoleAssignmentWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(UserRoleAssignmentWorker.class);
+
+    private final Set<Integer> pendingUsers = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "paradygm-role-assignment");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Queues granting the given roles to the user unless a grant for that user is already pending.
+     *
+     * @return true if the grant was queued
+     */
+    public boolean grant(final Integer userId, final Collection<String> roleNames) {
+        if (!pendingUsers.add(userId)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    runAsDaemon(() -> assign(userId, roleNames));
+                }
+                catch (Exception e) {
+                    log.error("Unable to grant roles {} to Paradygm EMR user {}", roleNames, userId, e);
+                }
+                finally {
+                    pendingUsers.remove(userId);
+                }
+            });
+            return true;
+        }
+        catch (RuntimeException e) {
+            pendingUsers.remove(userId);
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void assign(Integer userId, Collection<String> roleNames) {
+        UserService userService = Context.getUserService();
+        User user = userService.getUser(userId);
+        if (user == null) {
+            return;
+        }
+        boolean changed = false;
+        for (String roleName : roleNames) {
+            if (user.hasRole(roleName)) {
+                continue;
+            }
+            Role role = userService.getRole(roleName);
+            if (role == null) {
+                log.warn("Role '{}' does not exist, unable to grant it to Paradygm EMR user '{}'", roleName, user.getUsername());
+                continue;
+            }
+            user.addRole(role);
+            changed = true;
+            log.debug("Granted Paradygm EMR user: '{}' role: '{}'", user.getUsername(), roleName);
+        }
+        if (changed) {
+            userService.saveUser(user);
+        }
+    }
+
+    private void runAsDaemon(Runnable runnable) throws InterruptedException {
+        DaemonToken token = ParadygmEmrActivator.getDaemonToken();
+        if (token == null) {
+            runnable.run();
+            return;
+        }
+        Daemon.runInDaemonThread(runnable, token).join();
+    }
+}
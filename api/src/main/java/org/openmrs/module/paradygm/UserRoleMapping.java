@@ -0,0 +1,158 @@
+package org.openmrs.module.paradygm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Immutable lookup of the roles Paradygm EMR users are granted on login.
+ *
+ * A mapping is a list of {@code pattern=Role[,Role...]} entries separated by semicolons or new lines. A pattern
+ * is either an exact username or a prefix ending in {@code *}, e.g.
+ * {@code NURSE_*=Nurse,Triage;REG_officer=Registration Officer}. A user gets the union of the roles of every
+ * entry that matches. Exact usernames are found with one hash lookup and prefixes through a character trie, so a
+ * lookup costs at most one step per character of the username regardless of the number of entries.
+ */
+public final class UserRoleMapping {
+
+    private static final String WILDCARD = "*";
+
+    private final Map<String, Set<String>> exact;
+
+    private final Node prefixes;
+
+    private UserRoleMapping(Map<String, Set<String>> exact, Node prefixes) {
+        this.exact = exact;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * @return the mapping defined by {@link ParadygmMetadataConstants#USER_ROLES}
+     */
+    public static UserRoleMapping defaults() {
+        Builder builder = new Builder();
+        for (Map.Entry<String, String> entry : ParadygmMetadataConstants.USER_ROLES.entrySet()) {
+            builder.add(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Parses a mapping definition.
+     *
+     * @throws IllegalArgumentException if an entry has no pattern or no roles
+     */
+    public static UserRoleMapping parse(String definition) {
+        Builder builder = new Builder();
+        if (definition == null) {
+            return builder.build();
+        }
+        for (String entry : StringUtils.split(definition, ";\n")) {
+            if (StringUtils.isBlank(entry)) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            String pattern = separator < 0 ? null : StringUtils.trimToNull(entry.substring(0, separator));
+            if (pattern == null) {
+                throw new IllegalArgumentException("Invalid user role mapping entry: " + entry.trim());
+            }
+            boolean hasRole = false;
+            for (String role : StringUtils.split(entry.substring(separator + 1), ',')) {
+                if (StringUtils.isNotBlank(role)) {
+                    builder.add(pattern, role.trim());
+                    hasRole = true;
+                }
+            }
+            if (!hasRole) {
+                throw new IllegalArgumentException("User role mapping entry has no roles: " + entry.trim());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the roles of the given user, empty if the user is not a Paradygm EMR user
+     */
+    public Set<String> getRoles(String username) {
+        if (username == null) {
+            return Collections.emptySet();
+        }
+        Set<String> roles = exact.get(username);
+        Set<String> merged = null;
+        Node node = prefixes;
+        for (int i = 0; node != null; i++) {
+            if (node.roles != null) {
+                if (roles == null) {
+                    roles = node.roles;
+                } else {
+                    if (merged == null) {
+                        merged = new LinkedHashSet<>(roles);
+                        roles = merged;
+                    }
+                    merged.addAll(node.roles);
+                }
+            }
+            if (i == username.length()) {
+                break;
+            }
+            node = node.children.get(username.charAt(i));
+        }
+        if (roles == null) {
+            return Collections.emptySet();
+        }
+        return merged != null ? Collections.unmodifiableSet(merged) : roles;
+    }
+
+    private static final class Node {
+
+        private final Map<Character, Node> children = new HashMap<>(4);
+
+        private Set<String> roles;
+    }
+
+    private static final class Builder {
+
+        private final Map<String, Set<String>> exact = new LinkedHashMap<>();
+
+        private final Node prefixes = new Node();
+
+        void add(String pattern, String role) {
+            if (pattern.endsWith(WILDCARD)) {
+                Node node = prefixes;
+                String prefix = pattern.substring(0, pattern.length() - 1);
+                for (int i = 0; i < prefix.length(); i++) {
+                    node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+                }
+                if (node.roles == null) {
+                    node.roles = new LinkedHashSet<>();
+                }
+                node.roles.add(role);
+            } else {
+                exact.computeIfAbsent(pattern, p -> new LinkedHashSet<>()).add(role);
+            }
+        }
+
+        UserRoleMapping build() {
+            Map<String, Set<String>> frozen = new HashMap<>(exact.size() * 2);
+            for (Map.Entry<String, Set<String>> entry : exact.entrySet()) {
+                frozen.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+            }
+            freeze(prefixes);
+            return new UserRoleMapping(Collections.unmodifiableMap(frozen), prefixes);
+        }
+
+        private void freeze(Node node) {
+            if (node.roles != null) {
+                node.roles = Collections.unmodifiableSet(node.roles);
+            }
+            for (Node child : node.children.values()) {
+                freeze(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.openmrs.module.paradygm;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the current {@link UserRoleMapping} and reloads it whenever the {@value #GP_USER_ROLES} global property
+ * changes, so new accounts and patterns take effect without restarting the module. When the property is blank or
+ * deleted the defaults from {@link ParadygmMetadataConstants#USER_ROLES} are used; an invalid value is logged and
+ * the previous mapping is kept.
+ */
+public class UserRoleMappingLoader implements GlobalPropertyListener {
+
+    public static final String GP_USER_ROLES = "paradygm.userRoles";
+
+    private static final Logger log = LoggerFactory.getLogger(UserRoleMappingLoader.class);
+
+    private static final UserRoleMappingLoader INSTANCE = new UserRoleMappingLoader();
+
+    private volatile UserRoleMapping mapping = UserRoleMapping.defaults();
+
+    public static UserRoleMappingLoader getInstance() {
+        return INSTANCE;
+    }
+
+    public UserRoleMapping getMapping() {
+        return mapping;
+    }
+
+    public void load(String definition) {
+        if (StringUtils.isBlank(definition)) {
+            mapping = UserRoleMapping.defaults();
+            log.info("Using default Paradygm EMR user role mapping");
+            return;
+        }
+        try {
+            mapping = UserRoleMapping.parse(definition);
+            log.info("Loaded Paradygm EMR user role mapping from {}", GP_USER_ROLES);
+        }
+        catch (IllegalArgumentException e) {
+            log.error("Invalid value of {}, keeping the previous user role mapping: {}", GP_USER_ROLES, e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean supportsPropertyName(String propertyName) {
+        return GP_USER_ROLES.equals(propertyName);
+    }
+
+    @Override
+    public void globalPropertyChanged(GlobalProperty newValue) {
+        load(newValue.getPropertyValue());
+    }
+
+    @Override
+    public void globalPropertyDeleted(String propertyName) {
+        load(null);
+    }
+}
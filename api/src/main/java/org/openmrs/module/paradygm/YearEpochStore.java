@@ -0,0 +1,37 @@
+package org.openmrs.module.paradygm;
+
+/**
+ * Shared record of the year each identifier source issues Paradygm IDs in, so that several OpenMRS nodes running
+ * against one database agree on which of them resets the sequence when the year changes.
+ *
+ * {@link YearRolloverState} only asks the store once a node sees a new year for the first time; issuing IDs
+ * within a year never touches it.
+ */
+public interface YearEpochStore {
+
+    /**
+     * @return the year stored for the source, null if none is stored yet
+     */
+    Integer getYear(String sourceUuid);
+
+    /**
+     * Stores {@code year} for the source unless a year is stored for it already.
+     *
+     * @return the year stored for the source afterwards
+     */
+    int initialize(String sourceUuid, int year);
+
+    /**
+     * Moves the stored year of the source to {@code year}, or stores it if there is none.
+     *
+     * @return true if this call moved it, false if it was {@code year} already, i.e. another node rolled over
+     */
+    boolean advance(String sourceUuid, int year);
+
+    /**
+     * Sets the stored year of the source back to {@code previousYear} if it is still {@code year}.
+     *
+     * @return true if the year was set back
+     */
+    boolean revert(String sourceUuid, int year, int previousYear);
+}
@@ -0,0 +1,99 @@
+package org.openmrs.module.paradygm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the two digit year in which Paradygm IDs were last issued and decides, without locking, which caller
+ * performs the identifier sequence reset when the year changes.
+ *
+ * {@link #rollover(int)} compare-and-sets the recorded year, so when many registrations cross the year boundary
+ * at the same time exactly one of them observes the change and is responsible for resetting the sequence.
+ *
+ * With a {@link YearEpochStore} the registration that wins in this JVM must also move the year in the store, so
+ * that of several nodes sharing a database only one resets the sequence. Registrations within a year only read
+ * the local year.
+ */
+public class YearRolloverState {
+
+    private final String sourceUuid;
+
+    private final YearEpochStore epochStore;
+
+    private final AtomicInteger lastRecordedYear;
+
+    private volatile int previousYear;
+
+    public YearRolloverState(int initialYear) {
+        this(null, initialYear, null);
+    }
+
+    /**
+     * @param epochStore the store shared with other nodes, null if this JVM decides on its own
+     */
+    public YearRolloverState(String sourceUuid, int initialYear, YearEpochStore epochStore) {
+        this.sourceUuid = sourceUuid;
+        this.epochStore = epochStore;
+        this.lastRecordedYear = new AtomicInteger(initialYear);
+        this.previousYear = initialYear;
+    }
+
+    /**
+     * Moves the recorded year to {@code currentYear}.
+     *
+     * @return true if this call changed the recorded year, and no other node did so in the
+     *         {@link YearEpochStore}, in which case the caller must reset the sequence
+     * @throws RuntimeException if the store could not be updated, the recorded year is then left unchanged
+     */
+    public boolean rollover(int currentYear) {
+        int last;
+        do {
+            last = lastRecordedYear.get();
+            if (last == currentYear) {
+                return false;
+            }
+        } while (!lastRecordedYear.compareAndSet(last, currentYear));
+        previousYear = last;
+        if (epochStore == null) {
+            return true;
+        }
+        try {
+            return epochStore.advance(sourceUuid, currentYear);
+        } catch (RuntimeException e) {
+            // let the next registration try again
+            lastRecordedYear.compareAndSet(currentYear, last);
+            throw e;
+        }
+    }
+
+    /**
+     * Undoes the rollover to {@code year} that the calling registration won, if no other rollover happened since.
+     *
+     * @see #revert(int, int)
+     */
+    public boolean revertRollover(int year) {
+        return revert(year, previousYear);
+    }
+
+    /**
+     * Restores {@code previousYear} if the recorded year is still {@code year}, in this JVM and in the
+     * {@link YearEpochStore}. Used when the save that won a rollover failed, so that the next registration performs
+     * the reset instead.
+     */
+    public boolean revert(int year, int previousYear) {
+        if (!lastRecordedYear.compareAndSet(year, previousYear)) {
+            return false;
+        }
+        return epochStore == null || epochStore.revert(sourceUuid, year, previousYear);
+    }
+
+    public int getLastRecordedYear() {
+        return lastRecordedYear.get();
+    }
+
+    /**
+     * Sets the year recorded in this JVM only.
+     */
+    public void setLastRecordedYear(int year) {
+        lastRecordedYear.set(year);
+    }
+}
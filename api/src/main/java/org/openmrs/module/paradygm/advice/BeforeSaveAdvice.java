@@ -1,61 +1,182 @@
 package org.openmrs.module.paradygm.advice;
 
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.paradygm.IdentifierEnhancementFactory;
-import org.springframework.aop.AfterReturningAdvice;
-import org.springframework.aop.MethodBeforeAdvice;
+import org.openmrs.module.paradygm.duplicate.DuplicatePatientCheck;
+import org.openmrs.module.paradygm.event.PatientSaveEventQueue;
+import org.openmrs.module.paradygm.event.PatientSavedEvent;
+import org.openmrs.module.paradygm.metrics.ParadygmMetrics;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * The BeforeSaveAdvice class provides advice for methods that interact with
- * patient objects before and after their persistence. It implements both the
- * `MethodBeforeAdvice` and `AfterReturningAdvice` interfaces.
+ * The BeforeSaveAdvice class intercepts the "savePatient" operation around the persistence of the patient.
+ * It implements the `MethodInterceptor` interface, so everything it needs for one save lives in local
+ * variables of a single invocation and nothing is left behind on the (pooled) request thread, whether the
+ * save succeeds or throws.
  *
  * This class is primarily used to handle the following responsibilities:
- * - Enhance the identifier of patients during the "savePatient" operation before the patient object is persisted.
- * - Log relevant information once the patient object has been successfully saved.
- * - Reset and update the identifier sequence if required when the year changes.
- * - Manage thread-local state to ensure proper alignment of patient data during execution.
+ * - Check new patients for likely duplicates with the DuplicatePatientCheck, when it is turned on.
+ * - Enhance the identifier of new patients before the patient object is persisted.
+ * - Reset and update the identifier sequence if required when the year changes, once the patient is saved.
+ *   The reset stays on the request thread so no later registration can read the old sequence.
+ * - Give the year change back when the save that started it fails, so the next registration resets the
+ *   sequence instead.
+ * - Hand the saved patient to the PatientSaveEventQueue for the remaining post-save work, such as indexing
+ *   its Paradygm IDs, off the request thread. The event holds ids and identifier values, never the patient.
  *
- * Core functionalities include:
- * - Before advice (via `before` method): Enhances identifiers for patients in the "savePatient" operation
- *   if the patient does not already have an ID.
- * - After returning advice (via `afterReturning` method): Handles post-persistence logic such as logging
- *   successful patient creation and resetting identifier sequences when necessary.
+ * savePatient returning does not mean the patient is stored when it runs in a transaction, e.g. of a batch
+ * import, which can still fail to commit. In that case the post-save work waits for the commit, and the year
+ * change is given back when the transaction rolls back instead.
  *
  * This class utilizes the `IdentifierEnhancementFactory` to perform identifier customization
  * and sequence management.
  */
-public class BeforeSaveAdvice implements MethodBeforeAdvice, AfterReturningAdvice {
+public class BeforeSaveAdvice implements MethodInterceptor {
 
     private static final String METHOD_TO_INTERCEPT = "savePatient";
-    private static IdentifierEnhancementFactory identifierEnhancementFactory = new IdentifierEnhancementFactory();
-    private ThreadLocal<Patient> patientThreadLocal = new ThreadLocal<>();
+    private final IdentifierEnhancementFactory identifierEnhancementFactory;
+    private final ParadygmMetrics metrics = ParadygmMetrics.getInstance();
+    private final DuplicatePatientCheck duplicateCheck = DuplicatePatientCheck.getInstance();
     private Log log = LogFactory.getLog(getClass());
+    private PlatformTransactionManager transactionManager;
 
-    public void before(Method method, Object[] objects, Object o) {
-        if (method.getName().equalsIgnoreCase(METHOD_TO_INTERCEPT)) {
-            Patient patient = (Patient) objects[0];
-            if (patient.getPatientId() == null) {
-                identifierEnhancementFactory.enhanceIdentifier(patient);
-                patientThreadLocal.set(patient);
+    public BeforeSaveAdvice() {
+        this(new IdentifierEnhancementFactory());
+    }
+
+    public BeforeSaveAdvice(IdentifierEnhancementFactory identifierEnhancementFactory) {
+        this.identifierEnhancementFactory = identifierEnhancementFactory;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        if (!invocation.getMethod().getName().equalsIgnoreCase(METHOD_TO_INTERCEPT) || args.length == 0
+                || !(args[0] instanceof Patient)) {
+            return invocation.proceed();
+        }
+
+        Patient patient = (Patient) args[0];
+        long start = System.nanoTime();
+        boolean registration = patient.getPatientId() == null;
+        // only the registration that started the new year carries pending sequence resets
+        List<String> sequenceResets = Collections.emptyList();
+        if (registration) {
+            duplicateCheck.check(patient);
+            long enhancementStart = System.nanoTime();
+            sequenceResets = identifierEnhancementFactory.enhanceIdentifier(patient);
+            metrics.recordEnhancement(enhancementStart);
+        }
+        boolean saved = false;
+        try {
+            Object returnValue = invocation.proceed();
+            saved = true;
+            Patient savedPatient = returnValue instanceof Patient ? (Patient) returnValue : patient;
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new AfterCommit(savedPatient, sequenceResets));
+            } else {
+                resetSequences(sequenceResets);
+                afterSave(savedPatient);
+            }
+            return returnValue;
+        } finally {
+            if (registration) {
+                metrics.recordRegistration(start, saved);
+            }
+            if (!saved) {
+                revertSequenceResets(sequenceResets, "Patient save failed");
             }
         }
     }
 
-    @Override
-    public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
-        if (method.getName().equalsIgnoreCase(METHOD_TO_INTERCEPT) && args[0] instanceof Patient) {
-            log.warn("Patient Created succesfully." );
-
-            Patient patient = patientThreadLocal.get();
-            if (patient != null && identifierEnhancementFactory.hasIsIdentiferSequenceReset()) {
-                log.warn("Attempting to save identifier Sequence after patient Creation." );
-                patientThreadLocal.remove();
-                identifierEnhancementFactory.saveNewIdentifierSequenceValue();;
+    // Setter for dependency injection in tests, the transaction manager is looked up in the Context otherwise
+    void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    private void resetSequences(List<String> sequenceResets) {
+        if (!sequenceResets.isEmpty()) {
+            log.warn("Attempting to save identifier Sequence after patient Creation." );
+            for (String sourceUuid : sequenceResets) {
+                identifierEnhancementFactory.saveNewIdentifierSequenceValue(sourceUuid);
+            }
+        }
+    }
+
+    private void revertSequenceResets(List<String> sequenceResets, String reason) {
+        for (String sourceUuid : sequenceResets) {
+            log.warn(reason + ", identifier Sequence of source " + sourceUuid + " will be reset by the next registration");
+            identifierEnhancementFactory.revertSequenceReset(sourceUuid);
+        }
+    }
+
+    private void afterSave(Patient patient) {
+        if (log.isDebugEnabled()) {
+            log.debug("Patient saved successfully.");
+        }
+        try {
+            duplicateCheck.patientSaved(patient);
+        } catch (RuntimeException e) {
+            log.error("Unable to update the duplicate patient index with patient " + patient.getPatientId(), e);
+        }
+        try {
+            PatientSaveEventQueue.getInstance().publish(PatientSavedEvent.of(patient));
+        } catch (RuntimeException e) {
+            log.error("Unable to publish saved patient " + patient.getPatientId() + " for post-save processing", e);
+        }
+    }
+
+    /**
+     * Does the post-save work of a patient saved in a transaction once that transaction has committed.
+     */
+    private final class AfterCommit implements TransactionSynchronization {
+
+        private final Patient patient;
+
+        private final List<String> sequenceResets;
+
+        AfterCommit(Patient patient, List<String> sequenceResets) {
+            this.patient = patient;
+            this.sequenceResets = sequenceResets;
+        }
+
+        @Override
+        public void afterCommit() {
+            if (!sequenceResets.isEmpty()) {
+                try {
+                    // the committed transaction is still bound to the thread, the reset needs one of its own
+                    PlatformTransactionManager manager = transactionManager != null ? transactionManager
+                            : Context.getRegisteredComponent("transactionManager", PlatformTransactionManager.class);
+                    TransactionTemplate transactionTemplate = new TransactionTemplate(manager);
+                    transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+                    transactionTemplate.execute(status -> {
+                        resetSequences(sequenceResets);
+                        return null;
+                    });
+                } catch (RuntimeException e) {
+                    log.error("Unable to reset identifier Sequence after patient " + patient.getPatientId() + " was saved", e);
+                    revertSequenceResets(sequenceResets, "Sequence reset failed");
+                }
+            }
+            afterSave(patient);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == STATUS_ROLLED_BACK) {
+                revertSequenceResets(sequenceResets, "Patient save rolled back");
             }
         }
     }
@@ -0,0 +1,45 @@
+package org.openmrs.module.paradygm.advice;
+
+import java.lang.reflect.Method;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.idgen.IdentifierSource;
+import org.openmrs.module.paradygm.IdentifierEnhancementRegistry;
+import org.openmrs.module.paradygm.IdentifierSourceCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Evicts identifier sources from the {@link IdentifierSourceCache} whenever they are saved, retired,
+ * unretired or purged through the idgen IdentifierSourceService, so a changed prefix or a retired source
+ * is never served from the cache. The identifier type index of the {@link IdentifierEnhancementRegistry} is
+ * rebuilt on next use as well.
+ */
+public class IdentifierSourceChangeAdvice implements AfterReturningAdvice {
+
+    private Log log = LogFactory.getLog(getClass());
+
+    @Override
+    public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+        if (!isSourceChange(method.getName())) {
+            return;
+        }
+        if (args.length > 0 && args[0] instanceof IdentifierSource) {
+            String uuid = ((IdentifierSource) args[0]).getUuid();
+            if (log.isDebugEnabled()) {
+                log.debug("Identifier source " + uuid + " changed through " + method.getName() + ", evicting it from the cache");
+            }
+            IdentifierSourceCache.getInstance().invalidate(uuid);
+        } else {
+            IdentifierSourceCache.getInstance().invalidateAll();
+        }
+        IdentifierEnhancementRegistry.getInstance().invalidate();
+    }
+
+    private boolean isSourceChange(String methodName) {
+        return methodName.equals("saveIdentifierSource")
+                || methodName.equals("retireIdentifierSource")
+                || methodName.equals("unretireIdentifierSource")
+                || methodName.equals("purgeIdentifierSource");
+    }
+}
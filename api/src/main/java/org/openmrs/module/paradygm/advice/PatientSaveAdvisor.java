@@ -0,0 +1,40 @@
+package org.openmrs.module.paradygm.advice;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
+
+/**
+ * Binds {@link BeforeSaveAdvice} to {@code PatientService.savePatient} only.
+ *
+ * Registered in config.xml instead of the bare advice, so that reads, searches and every other PatientService
+ * method are proxied without any Paradygm interceptor in their chain. Match decisions are static and cached per
+ * {@link Method}.
+ */
+public class PatientSaveAdvisor extends StaticMethodMatcherPointcutAdvisor {
+
+    private static final String METHOD_TO_INTERCEPT = "savePatient";
+
+    private final ConcurrentMap<Method, Boolean> decisions = new ConcurrentHashMap<>();
+
+    public PatientSaveAdvisor() {
+        this(new BeforeSaveAdvice());
+    }
+
+    public PatientSaveAdvisor(Advice advice) {
+        super(advice);
+    }
+
+    @Override
+    public boolean matches(Method method, Class<?> targetClass) {
+        Boolean decision = decisions.get(method);
+        if (decision == null) {
+            decision = METHOD_TO_INTERCEPT.equals(method.getName()) && method.getParameterCount() == 1;
+            decisions.putIfAbsent(method, decision);
+        }
+        return decision;
+    }
+}
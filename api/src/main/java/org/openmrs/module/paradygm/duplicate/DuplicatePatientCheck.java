@@ -0,0 +1,191 @@
+package org.openmrs.module.paradygm.duplicate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.paradygm.metrics.ParadygmMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks new patients against the {@link DuplicatePatientIndex} before they are saved, as configured by the
+ * {@value #GP_MODE} global property:
+ * <ul>
+ * <li>{@code off}: no check, and the index is not kept (the default)</li>
+ * <li>{@code flag}: likely duplicates are saved and logged</li>
+ * <li>{@code reject}: likely duplicates are not saved, {@link DuplicatePatientException} is thrown</li>
+ * </ul>
+ * A registration that matches no indexed patient, by far the most common case, costs one hash lookup. Hits are
+ * verified by loading the matched patients, since their names may have changed since they were indexed.
+ */
+public class DuplicatePatientCheck implements GlobalPropertyListener {
+
+    public static final String GP_MODE = "paradygm.duplicateCheck.mode";
+
+    private static final Logger log = LoggerFactory.getLogger(DuplicatePatientCheck.class);
+
+    private static final DuplicatePatientCheck INSTANCE = new DuplicatePatientCheck(DuplicatePatientIndex.getInstance());
+
+    /**
+     * What to do with a new patient that is a likely duplicate.
+     */
+    public enum Mode {
+        OFF, FLAG, REJECT
+    }
+
+    private final DuplicatePatientIndex index;
+
+    private volatile Mode mode = Mode.OFF;
+
+    private volatile Runnable onEnabled;
+
+    private PatientService patientService;
+
+    DuplicatePatientCheck(DuplicatePatientIndex index) {
+        this.index = index;
+    }
+
+    public static DuplicatePatientCheck getInstance() {
+        return INSTANCE;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isEnabled() {
+        return mode != Mode.OFF;
+    }
+
+    public void setMode(Mode mode) {
+        boolean enabled = mode != Mode.OFF && this.mode == Mode.OFF;
+        this.mode = mode;
+        if (mode == Mode.OFF) {
+            index.clear();
+        } else if (enabled && onEnabled != null) {
+            onEnabled.run();
+        }
+    }
+
+    /**
+     * Sets the mode from the value of {@value #GP_MODE}, blank or invalid values turn the check off.
+     */
+    public void load(String value) {
+        Mode newMode = Mode.OFF;
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                newMode = Mode.valueOf(value.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e) {
+                log.error("Invalid value '{}' of {}, expected off, flag or reject; turning the duplicate check off", value,
+                        GP_MODE);
+            }
+        }
+        if (newMode != mode) {
+            log.info("Paradygm duplicate patient check is {}", newMode.name().toLowerCase());
+        }
+        setMode(newMode);
+    }
+
+    /**
+     * @param onEnabled run when the check is turned on, to fill the index
+     */
+    public void setOnEnabled(Runnable onEnabled) {
+        this.onEnabled = onEnabled;
+    }
+
+    /**
+     * Checks a patient that is about to be registered.
+     *
+     * @throws DuplicatePatientException in {@code reject} mode, if the patient is a likely duplicate
+     */
+    public void check(Patient patient) {
+        Mode currentMode = mode;
+        if (currentMode == Mode.OFF) {
+            return;
+        }
+        PatientKey patientKey = PatientKey.of(patient);
+        if (patientKey == null) {
+            return;
+        }
+        List<Integer> hits = index.find(patientKey);
+        if (hits.isEmpty()) {
+            return;
+        }
+        List<Patient> duplicates = verify(hits, patientKey);
+        if (duplicates.isEmpty()) {
+            return;
+        }
+        List<Integer> duplicateIds = new ArrayList<>(duplicates.size());
+        List<String> described = new ArrayList<>(duplicates.size());
+        for (Patient duplicate : duplicates) {
+            duplicateIds.add(duplicate.getPatientId());
+            PatientIdentifier identifier = duplicate.getPatientIdentifier();
+            described.add(identifier != null ? identifier.getIdentifier() : "#" + duplicate.getPatientId());
+        }
+        ParadygmMetrics.getInstance().recordDuplicate(currentMode == Mode.REJECT);
+        if (currentMode == Mode.REJECT) {
+            throw new DuplicatePatientException("Patient " + patient.getPersonName().getFullName() + " looks like a duplicate of the"
+                    + " registered patient(s) " + StringUtils.join(described, ", "), duplicateIds);
+        }
+        log.warn("Registering patient {} who looks like a duplicate of the registered patient(s) {}",
+                patient.getPersonName().getFullName(), described);
+    }
+
+    /**
+     * Keeps the index up to date with a saved patient.
+     */
+    public void patientSaved(Patient patient) {
+        if (mode != Mode.OFF) {
+            index.add(patient);
+        }
+    }
+
+    @Override
+    public boolean supportsPropertyName(String propertyName) {
+        return GP_MODE.equals(propertyName);
+    }
+
+    @Override
+    public void globalPropertyChanged(GlobalProperty newValue) {
+        load(newValue.getPropertyValue());
+    }
+
+    @Override
+    public void globalPropertyDeleted(String propertyName) {
+        load(null);
+    }
+
+    // Setter for dependency injection in tests
+    void setPatientService(PatientService patientService) {
+        this.patientService = patientService;
+    }
+
+    /**
+     * @return the hits that still match once loaded; stale entries are corrected in the index
+     */
+    private List<Patient> verify(List<Integer> hits, PatientKey patientKey) {
+        PatientService service = patientService != null ? patientService : Context.getPatientService();
+        List<Patient> duplicates = new ArrayList<>(hits.size());
+        for (Integer patientId : hits) {
+            Patient candidate = service.getPatient(patientId);
+            if (candidate == null) {
+                index.remove(patientId);
+                continue;
+            }
+            index.add(candidate);
+            PatientKey candidateKey = Boolean.TRUE.equals(candidate.getVoided()) ? null : PatientKey.of(candidate);
+            if (candidateKey != null && candidateKey.matches(patientKey)) {
+                duplicates.add(candidate);
+            }
+        }
+        return duplicates;
+    }
+}
@@ -0,0 +1,34 @@
+package org.openmrs.module.paradygm.duplicate;
+
+import java.util.List;
+
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Reads what the {@link DuplicatePatientIndex} needs of patients without loading them.
+ */
+@Repository("paradygm.duplicatePatientDao")
+public class DuplicatePatientDao {
+
+    @Autowired
+    private DbSessionFactory sessionFactory;
+
+    /**
+     * Returns up to {@code maxResults} non-voided patients with an id lower than {@code beforePatientId}, newest
+     * first, each as {@code [patientId, givenName, familyName, gender, birthdate, birthdateEstimated]} of their
+     * preferred name.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getNewestPatients(int beforePatientId, int maxResults) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("select p.patientId, n.givenName, n.familyName, p.gender, p.birthdate, p.birthdateEstimated"
+                        + " from Patient p join p.names n"
+                        + " where p.patientId < :before and p.voided = false and n.voided = false and n.preferred = true"
+                        + " order by p.patientId desc")
+                .setParameter("before", beforePatientId)
+                .setMaxResults(maxResults)
+                .list();
+    }
+}
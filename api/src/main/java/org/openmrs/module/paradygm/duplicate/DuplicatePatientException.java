@@ -0,0 +1,27 @@
+package org.openmrs.module.paradygm.duplicate;
+
+import java.util.List;
+
+import org.openmrs.api.APIException;
+
+/**
+ * Thrown when a new patient is rejected as a likely duplicate of patients already registered.
+ */
+public class DuplicatePatientException extends APIException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Integer> duplicatePatientIds;
+
+    public DuplicatePatientException(String message, List<Integer> duplicatePatientIds) {
+        super(message);
+        this.duplicatePatientIds = duplicatePatientIds;
+    }
+
+    /**
+     * @return ids of the registered patients the new patient is a likely duplicate of
+     */
+    public List<Integer> getDuplicatePatientIds() {
+        return duplicatePatientIds;
+    }
+}
@@ -0,0 +1,155 @@
+package org.openmrs.module.paradygm.duplicate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openmrs.Patient;
+
+/**
+ * In-memory index of recently registered patients by {@link PatientKey}, so a new registration can be checked for
+ * likely duplicates with a single hash lookup instead of querying the person tables.
+ *
+ * The index holds at most {@link #getMaxPatients()} patients; when it is full the patient registered longest ago,
+ * the one with the lowest patient id, is dropped. Eviction thus does not depend on the order patients were indexed
+ * in, as the index is filled by {@link DuplicatePatientIndexRebuild} with the newest patients when the module
+ * starts while it is also kept up to date as patients are saved. Entries of patients whose names were changed
+ * elsewhere can be stale, so hits are verified against the database by {@link DuplicatePatientCheck}.
+ */
+public class DuplicatePatientIndex {
+
+    public static final int DEFAULT_MAX_PATIENTS = 200000;
+
+    private static final DuplicatePatientIndex INSTANCE = new DuplicatePatientIndex(DEFAULT_MAX_PATIENTS);
+
+    private static final PatientKey[] NONE = new PatientKey[0];
+
+    private final int maxPatients;
+
+    private final ConcurrentHashMap<String, PatientKey[]> patientsByKey = new ConcurrentHashMap<>();
+
+    /**
+     * Sorted by patient id, the first entry is evicted first.
+     */
+    private final ConcurrentSkipListMap<Integer, PatientKey> keysByPatient = new ConcurrentSkipListMap<>();
+
+    /**
+     * Number of entries of {@link #keysByPatient}, whose own size() walks all of them.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile boolean rebuilt;
+
+    DuplicatePatientIndex(int maxPatients) {
+        this.maxPatients = maxPatients;
+    }
+
+    public static DuplicatePatientIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Indexes a saved patient, or removes it if it is voided or lacks the details to compare it by.
+     */
+    public void add(Patient patient) {
+        if (patient.getPatientId() == null) {
+            return;
+        }
+        PatientKey key = Boolean.TRUE.equals(patient.getVoided()) ? null : PatientKey.of(patient);
+        if (key == null) {
+            remove(patient.getPatientId());
+        } else {
+            add(key);
+        }
+    }
+
+    void add(PatientKey patientKey) {
+        PatientKey previous = keysByPatient.put(patientKey.getPatientId(), patientKey);
+        if (previous != null) {
+            removeFromKey(previous);
+        } else {
+            size.incrementAndGet();
+        }
+        patientsByKey.merge(patientKey.getKey(), new PatientKey[] { patientKey }, DuplicatePatientIndex::append);
+        while (size.get() > maxPatients) {
+            Map.Entry<Integer, PatientKey> eldest = keysByPatient.pollFirstEntry();
+            if (eldest == null) {
+                break;
+            }
+            size.decrementAndGet();
+            removeFromKey(eldest.getValue());
+        }
+    }
+
+    public void remove(Integer patientId) {
+        PatientKey previous = keysByPatient.remove(patientId);
+        if (previous != null) {
+            size.decrementAndGet();
+            removeFromKey(previous);
+        }
+    }
+
+    /**
+     * @return ids of indexed patients that match the given one, other than the patient itself
+     */
+    List<Integer> find(PatientKey patientKey) {
+        PatientKey[] candidates = patientsByKey.getOrDefault(patientKey.getKey(), NONE);
+        List<Integer> matches = null;
+        for (PatientKey candidate : candidates) {
+            if (candidate.matches(patientKey) && !candidate.getPatientId().equals(patientKey.getPatientId())) {
+                if (matches == null) {
+                    matches = new ArrayList<>(1);
+                }
+                matches.add(candidate.getPatientId());
+            }
+        }
+        return matches != null ? matches : Collections.<Integer>emptyList();
+    }
+
+    public int getMaxPatients() {
+        return maxPatients;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isRebuilt() {
+        return rebuilt;
+    }
+
+    void setRebuilt(boolean rebuilt) {
+        this.rebuilt = rebuilt;
+    }
+
+    public void clear() {
+        keysByPatient.clear();
+        size.set(0);
+        patientsByKey.clear();
+        rebuilt = false;
+    }
+
+    private void removeFromKey(PatientKey patientKey) {
+        patientsByKey.computeIfPresent(patientKey.getKey(), (key, patients) -> {
+            PatientKey[] remaining = new PatientKey[patients.length];
+            int length = 0;
+            for (PatientKey each : patients) {
+                if (!each.getPatientId().equals(patientKey.getPatientId())) {
+                    remaining[length++] = each;
+                }
+            }
+            return length == 0 ? null : length == patients.length ? patients : Arrays.copyOf(remaining, length);
+        });
+    }
+
+    private static PatientKey[] append(PatientKey[] patients, PatientKey[] added) {
+        PatientKey[] result = Arrays.copyOf(patients, patients.length + 1);
+        result[patients.length] = added[0];
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package org.openmrs.module.paradygm.duplicate;
+
+import java.util.Date;
+import java.util.List;
+
+import org.openmrs.api.context.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Fills the {@link DuplicatePatientIndex} with the newest patients, up to its size. Meant to run in a daemon thread
+ * when the module starts or the check is turned on; patients are read in pages of {@value #BATCH_SIZE} in
+ * read-only transactions, with the session cleared in between.
+ */
+public class DuplicatePatientIndexRebuild implements Runnable {
+
+    static final int BATCH_SIZE = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(DuplicatePatientIndexRebuild.class);
+
+    private final DuplicatePatientIndex index;
+
+    private final DuplicatePatientCheck check;
+
+    public DuplicatePatientIndexRebuild() {
+        this(DuplicatePatientIndex.getInstance(), DuplicatePatientCheck.getInstance());
+    }
+
+    DuplicatePatientIndexRebuild(DuplicatePatientIndex index, DuplicatePatientCheck check) {
+        this.index = index;
+        this.check = check;
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        try {
+            DuplicatePatientDao dao = Context.getRegisteredComponent("paradygm.duplicatePatientDao",
+                    DuplicatePatientDao.class);
+            TransactionTemplate transactionTemplate = new TransactionTemplate(
+                    Context.getRegisteredComponent("transactionManager", PlatformTransactionManager.class));
+            transactionTemplate.setReadOnly(true);
+
+            int beforePatientId = Integer.MAX_VALUE;
+            int read = 0;
+            List<Object[]> rows;
+            do {
+                final int before = beforePatientId;
+                final int max = Math.min(BATCH_SIZE, index.getMaxPatients() - read);
+                rows = transactionTemplate.execute(status -> dao.getNewestPatients(before, max));
+                for (Object[] row : rows) {
+                    beforePatientId = (Integer) row[0];
+                    PatientKey patientKey = PatientKey.of(beforePatientId, (String) row[1], (String) row[2],
+                            (String) row[3], (Date) row[4], Boolean.TRUE.equals(row[5]));
+                    if (patientKey != null) {
+                        index.add(patientKey);
+                    }
+                }
+                read += rows.size();
+                Context.clearSession();
+            } while (rows.size() == BATCH_SIZE && read < index.getMaxPatients() && check.isEnabled());
+
+            if (!check.isEnabled()) {
+                index.clear();
+                return;
+            }
+            index.setRebuilt(true);
+            log.info("Indexed {} patients for the duplicate check in {} ms", index.size(),
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Unable to fill the Paradygm duplicate patient index, only patients saved from now on are checked",
+                    e);
+        }
+    }
+}
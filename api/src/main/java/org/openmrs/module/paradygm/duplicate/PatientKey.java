@@ -0,0 +1,73 @@
+package org.openmrs.module.paradygm.duplicate;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import org.openmrs.Patient;
+import org.openmrs.PersonName;
+
+/**
+ * What the {@link DuplicatePatientIndex} knows about a patient: the Soundex codes of the given and family name,
+ * gender and birth year as the key that likely duplicates share, plus the birthdate to tell them apart.
+ */
+final class PatientKey {
+
+    private final Integer patientId;
+
+    private final String key;
+
+    private final int birthdate;
+
+    private final boolean birthdateEstimated;
+
+    PatientKey(Integer patientId, String givenName, String familyName, String gender, Date birthdate,
+               boolean birthdateEstimated) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(birthdate);
+        int year = calendar.get(Calendar.YEAR);
+        this.patientId = patientId;
+        this.key = Soundex.encode(givenName) + Soundex.encode(familyName) + gender.toUpperCase().charAt(0) + year;
+        this.birthdate = year * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DAY_OF_MONTH);
+        this.birthdateEstimated = birthdateEstimated;
+    }
+
+    /**
+     * @return the key of the patient, null if the patient lacks a given or family name, gender or birthdate
+     */
+    static PatientKey of(Patient patient) {
+        PersonName name = patient.getPersonName();
+        if (name == null) {
+            return null;
+        }
+        return of(patient.getPatientId(), name.getGivenName(), name.getFamilyName(), patient.getGender(),
+                patient.getBirthdate(), Boolean.TRUE.equals(patient.getBirthdateEstimated()));
+    }
+
+    /**
+     * @return the key of the patient, null if any of the names, gender or birthdate is missing
+     */
+    static PatientKey of(Integer patientId, String givenName, String familyName, String gender, Date birthdate,
+                         boolean birthdateEstimated) {
+        if (birthdate == null || gender == null || gender.isEmpty() || Soundex.encode(givenName) == null
+                || Soundex.encode(familyName) == null) {
+            return null;
+        }
+        return new PatientKey(patientId, givenName, familyName, gender, birthdate, birthdateEstimated);
+    }
+
+    Integer getPatientId() {
+        return patientId;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * @return true if both have the same key and birthdate, or the same key and either birthdate is estimated
+     */
+    boolean matches(PatientKey other) {
+        return key.equals(other.key)
+                && (birthdate == other.birthdate || birthdateEstimated || other.birthdateEstimated);
+    }
+}
@@ -0,0 +1,52 @@
+package org.openmrs.module.paradygm.duplicate;
+
+/**
+ * American Soundex codes of names, e.g. {@code Robert} and {@code Rupert} are both {@code R163}, so that names
+ * spelled differently at different registrations still meet in the {@link DuplicatePatientIndex}. Characters other
+ * than the letters A to Z are ignored.
+ */
+final class Soundex {
+
+    /**
+     * Digit of every letter A to Z, 0 for vowels and the letters H, W and Y.
+     */
+    private static final char[] CODES = "01230120022455012623010202".toCharArray();
+
+    private Soundex() {
+    }
+
+    /**
+     * @return the four character code, null if the name has no letter A to Z
+     */
+    static String encode(String name) {
+        if (name == null) {
+            return null;
+        }
+        char[] code = new char[4];
+        int length = 0;
+        char previous = 0;
+        for (int i = 0; i < name.length() && length < code.length; i++) {
+            char c = Character.toUpperCase(name.charAt(i));
+            if (c < 'A' || c > 'Z') {
+                continue;
+            }
+            char digit = CODES[c - 'A'];
+            if (length == 0) {
+                code[length++] = c;
+            } else if (digit != '0' && digit != previous) {
+                code[length++] = digit;
+            }
+            // H and W do not separate letters with the same code, vowels do
+            if (c != 'H' && c != 'W') {
+                previous = digit;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        while (length < code.length) {
+            code[length++] = '0';
+        }
+        return new String(code);
+    }
+}
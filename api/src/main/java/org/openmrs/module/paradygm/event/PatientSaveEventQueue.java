@@ -0,0 +1,278 @@
+package org.openmrs.module.paradygm.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.paradygm.ParadygmEmrActivator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands saved patients from the request thread to the registered {@link PatientSaveHandler}s, so post-save work
+ * does not add to registration response time.
+ *
+ * Events are spread over a fixed number of stripes by patient, each a bounded queue with a single worker thread,
+ * so the events of one patient are always handled in order. Workers take up to {@value #DEFAULT_BATCH_SIZE}
+ * queued events at a time and run the handlers as the daemon user. When a stripe is full the saving thread waits
+ * for room; if there is still none after the offer timeout it handles the event itself rather than dropping it.
+ *
+ * Before {@link #start()} and after {@link #drain(long)} events are handled on the saving thread. Publishers
+ * that saw the queue running are counted, and draining waits for them, so no event is queued after the last
+ * stripe was drained.
+ */
+public class PatientSaveEventQueue {
+
+    static final int DEFAULT_STRIPES = 2;
+
+    static final int DEFAULT_CAPACITY = 1000;
+
+    static final int DEFAULT_BATCH_SIZE = 100;
+
+    static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 2000;
+
+    private static final long POLL_MILLIS = 200;
+
+    private static final Logger log = LoggerFactory.getLogger(PatientSaveEventQueue.class);
+
+    private static final PatientSaveEventQueue INSTANCE = new PatientSaveEventQueue(DEFAULT_STRIPES, DEFAULT_CAPACITY,
+            DEFAULT_BATCH_SIZE, DEFAULT_OFFER_TIMEOUT_MILLIS);
+
+    private final List<PatientSaveHandler> handlers = new CopyOnWriteArrayList<>();
+
+    private final Stripe[] stripes;
+
+    private final int batchSize;
+
+    private final long offerTimeoutMillis;
+
+    private volatile boolean running;
+
+    /**
+     * Publishers that may still queue an event, counted before they read {@link #running}.
+     */
+    private final AtomicInteger publishing = new AtomicInteger();
+
+    PatientSaveEventQueue(int stripes, int capacity, int batchSize, long offerTimeoutMillis) {
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(i, capacity);
+        }
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+    }
+
+    public static PatientSaveEventQueue getInstance() {
+        return INSTANCE;
+    }
+
+    public void addHandler(PatientSaveHandler handler) {
+        handlers.add(handler);
+    }
+
+    public void removeHandler(PatientSaveHandler handler) {
+        handlers.remove(handler);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts the worker threads; events published from now on are handled asynchronously.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Stripe stripe : stripes) {
+            stripe.start();
+        }
+        log.debug("Started {} Paradygm post-save workers", stripes.length);
+    }
+
+    /**
+     * Queues the event for the registered handlers.
+     */
+    public void publish(PatientSavedEvent event) {
+        if (handlers.isEmpty()) {
+            return;
+        }
+        publishing.incrementAndGet();
+        try {
+            if (running) {
+                Stripe stripe = stripes[Math.floorMod(stripeKey(event), stripes.length)];
+                try {
+                    if (stripe.queue.offer(event, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                    log.warn("Paradygm post-save queue is full, handling {} on the saving thread", event);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        finally {
+            publishing.decrementAndGet();
+        }
+        dispatch(Collections.singletonList(event));
+    }
+
+    /**
+     * Stops accepting events and waits for the queued ones to be handled. Events left in a stripe whose worker
+     * has finished are handled on the calling thread.
+     *
+     * @return false if some worker or publisher did not finish in time, their events are still queued
+     */
+    public boolean drain(long timeoutMillis) {
+        synchronized (this) {
+            running = false;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        // publishers that saw the queue running may still be offering, at most for the offer timeout
+        while (publishing.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        boolean drained = publishing.get() == 0;
+        if (!drained) {
+            log.warn("{} Paradygm post-save publishers did not finish, their events may stay queued", publishing.get());
+        }
+        for (Stripe stripe : stripes) {
+            Thread worker = stripe.worker;
+            if (worker != null) {
+                try {
+                    worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (worker.isAlive()) {
+                    log.warn("Paradygm post-save worker {} did not finish, {} events are still queued", worker.getName(),
+                            stripe.queue.size());
+                    drained = false;
+                    continue;
+                }
+            }
+            // events published while the worker was shutting down
+            List<PatientSavedEvent> remaining = new ArrayList<>();
+            stripe.queue.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                dispatch(remaining);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Stops the workers without waiting for queued events, which are discarded, and forgets all handlers.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+        }
+        int discarded = 0;
+        for (Stripe stripe : stripes) {
+            Thread worker = stripe.worker;
+            if (worker != null && worker.isAlive()) {
+                worker.interrupt();
+            }
+            discarded += stripe.queue.size();
+            stripe.queue.clear();
+        }
+        if (discarded > 0) {
+            log.warn("Discarded {} unhandled Paradygm post-save events", discarded);
+        }
+        handlers.clear();
+    }
+
+    private int stripeKey(PatientSavedEvent event) {
+        if (event.getPatientId() != null) {
+            return event.getPatientId();
+        }
+        return event.getPatientUuid() != null ? event.getPatientUuid().hashCode() : 0;
+    }
+
+    private void process(final List<PatientSavedEvent> batch) throws InterruptedException {
+        DaemonToken token = ParadygmEmrActivator.getDaemonToken();
+        if (token == null) {
+            dispatch(batch);
+            return;
+        }
+        Daemon.runInDaemonThread(() -> dispatch(batch), token).join();
+    }
+
+    private void dispatch(List<PatientSavedEvent> events) {
+        for (PatientSaveHandler handler : handlers) {
+            try {
+                handler.patientsSaved(events);
+            }
+            catch (Exception e) {
+                log.error("Paradygm post-save handler {} failed for {} events", handler.getClass().getSimpleName(),
+                        events.size(), e);
+            }
+        }
+    }
+
+    private final class Stripe implements Runnable {
+
+        private final int index;
+
+        private final BlockingQueue<PatientSavedEvent> queue;
+
+        private volatile Thread worker;
+
+        Stripe(int index, int capacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void start() {
+            Thread thread = new Thread(this, "paradygm-post-save-" + index);
+            thread.setDaemon(true);
+            worker = thread;
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            List<PatientSavedEvent> batch = new ArrayList<>(batchSize);
+            try {
+                while (true) {
+                    PatientSavedEvent first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (!running) {
+                            return;
+                        }
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    try {
+                        process(new ArrayList<>(batch));
+                    }
+                    finally {
+                        batch.clear();
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.openmrs.module.paradygm.event;
+
+import java.util.List;
+
+/**
+ * Post-registration work run by the {@link PatientSaveEventQueue} off the saving thread.
+ */
+public interface PatientSaveHandler {
+
+    /**
+     * Handles a batch of saved patients. Events of the same patient are always passed in the order the patient
+     * was saved, but a batch may contain several events of one patient.
+     */
+    void patientsSaved(List<PatientSavedEvent> events) throws Exception;
+}
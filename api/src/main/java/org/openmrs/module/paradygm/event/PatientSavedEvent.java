@@ -0,0 +1,88 @@
+package org.openmrs.module.paradygm.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+
+/**
+ * A patient that was saved through PatientService, reduced to the ids and identifier values post-save work
+ * needs, so queued events never hold on to the patient or its Hibernate session.
+ */
+public final class PatientSavedEvent {
+
+    private final Integer patientId;
+
+    private final String patientUuid;
+
+    private final List<SavedIdentifier> identifiers;
+
+    public PatientSavedEvent(Integer patientId, String patientUuid, List<SavedIdentifier> identifiers) {
+        this.patientId = patientId;
+        this.patientUuid = patientUuid;
+        this.identifiers = Collections.unmodifiableList(identifiers);
+    }
+
+    /**
+     * Captures the given, just saved patient and its active identifiers.
+     */
+    public static PatientSavedEvent of(Patient patient) {
+        PatientIdentifier preferred = patient.getPatientIdentifier();
+        List<SavedIdentifier> identifiers = new ArrayList<>(2);
+        for (PatientIdentifier identifier : patient.getActiveIdentifiers()) {
+            identifiers.add(new SavedIdentifier(
+                    identifier.getIdentifierType() != null ? identifier.getIdentifierType().getUuid() : null,
+                    identifier.getIdentifier(), identifier == preferred));
+        }
+        return new PatientSavedEvent(patient.getPatientId(), patient.getUuid(), identifiers);
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public String getPatientUuid() {
+        return patientUuid;
+    }
+
+    public List<SavedIdentifier> getIdentifiers() {
+        return identifiers;
+    }
+
+    @Override
+    public String toString() {
+        return "PatientSavedEvent{patientId=" + patientId + ", patientUuid=" + patientUuid + "}";
+    }
+
+    /**
+     * An active identifier of the saved patient.
+     */
+    public static final class SavedIdentifier {
+
+        private final String identifierTypeUuid;
+
+        private final String identifier;
+
+        private final boolean preferred;
+
+        public SavedIdentifier(String identifierTypeUuid, String identifier, boolean preferred) {
+            this.identifierTypeUuid = identifierTypeUuid;
+            this.identifier = identifier;
+            this.preferred = preferred;
+        }
+
+        public String getIdentifierTypeUuid() {
+            return identifierTypeUuid;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public boolean isPreferred() {
+            return preferred;
+        }
+    }
+}
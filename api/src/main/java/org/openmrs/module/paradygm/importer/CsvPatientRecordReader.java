@@ -0,0 +1,103 @@
+package org.openmrs.module.paradygm.importer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads patient records from RFC 4180 CSV. The first row is a header naming the columns (see
+ * {@link PatientImportRecord}); unknown columns are ignored. Quoted values may contain commas, quotes and line
+ * breaks.
+ */
+public class CsvPatientRecordReader implements PatientRecordReader {
+
+    private final Reader reader;
+
+    private final StringBuilder value = new StringBuilder();
+
+    private final List<String> row = new ArrayList<>();
+
+    private String[] header;
+
+    private long recordNumber;
+
+    private boolean eof;
+
+    public CsvPatientRecordReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+    }
+
+    @Override
+    public PatientImportRecord next() throws IOException {
+        if (header == null) {
+            if (!readRow()) {
+                return null;
+            }
+            header = row.toArray(new String[0]);
+        }
+        while (readRow()) {
+            if (row.size() == 1 && row.get(0).isEmpty()) {
+                continue;
+            }
+            PatientImportRecord record = new PatientImportRecord();
+            record.setRecordNumber(++recordNumber);
+            for (int i = 0; i < header.length && i < row.size(); i++) {
+                record.set(header[i], row.get(i).isEmpty() ? null : row.get(i));
+            }
+            return record;
+        }
+        return null;
+    }
+
+    private boolean readRow() throws IOException {
+        row.clear();
+        if (eof) {
+            return false;
+        }
+        value.setLength(0);
+        boolean quoted = false;
+        boolean read = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            read = true;
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    int following = reader.read();
+                    if (following == '"') {
+                        value.append('"');
+                    } else {
+                        quoted = false;
+                        if (following != -1) {
+                            reader.reset();
+                        }
+                    }
+                } else {
+                    value.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                row.add(value.toString().trim());
+                value.setLength(0);
+            } else if (c == '\n') {
+                row.add(value.toString().trim());
+                return true;
+            } else if (c != '\r') {
+                value.append((char) c);
+            }
+        }
+        eof = true;
+        if (read) {
+            row.add(value.toString().trim());
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,68 @@
+package org.openmrs.module.paradygm.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads patient records from a JSON array of objects whose keys are the column names of
+ * {@link PatientImportRecord}. The array is streamed, only one object is held in memory at a time.
+ */
+public class JsonPatientRecordReader implements PatientRecordReader {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final JsonParser parser;
+
+    private boolean started;
+
+    private long recordNumber;
+
+    public JsonPatientRecordReader(Reader reader) throws IOException {
+        this.parser = new JsonFactory(MAPPER).createParser(reader);
+    }
+
+    @Override
+    public PatientImportRecord next() throws IOException {
+        if (!started) {
+            started = true;
+            JsonToken first = parser.nextToken();
+            if (first == null) {
+                return null;
+            }
+            if (first != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array of patient records");
+            }
+        }
+        JsonToken token = parser.nextToken();
+        if (token == null || token == JsonToken.END_ARRAY) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a patient record object at " + parser.getCurrentLocation());
+        }
+        JsonNode node = parser.readValueAsTree();
+        PatientImportRecord record = new PatientImportRecord();
+        record.setRecordNumber(++recordNumber);
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().isNull()) {
+                record.set(field.getKey(), field.getValue().asText());
+            }
+        }
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,296 @@
+package org.openmrs.module.paradygm.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.PersonName;
+import org.openmrs.api.APIException;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.idgen.IdentifierSource;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierEnhancementFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Imports patients from legacy registries in CSV or JSON format.
+ *
+ * Records are streamed and processed in batches. For every batch the Paradygm identifiers are reserved from
+ * idgen in one call and the patients are saved through {@link PatientService#savePatient(Patient)} in a single
+ * transaction, so the usual identifier enhancement advice formats them exactly like patients registered at the
+ * front desk. Every transaction also saves a checkpoint counting the records it commits, so an interrupted import
+ * continues right after the last committed record without importing any patient twice. After every batch the
+ * Hibernate session is cleared, so memory stays bounded. If a batch fails its records are retried one by one; rows
+ * that still cannot be imported are written to a failures file and do not stop the import.
+ */
+@Component("paradygm.patientBatchImporter")
+public class PatientBatchImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientBatchImporter.class);
+
+    private static final String IDENTIFIER_COMMENT = "Paradygm EMR patient import";
+
+    public PatientImportProgress importPatients(File source, PatientImportOptions options) throws IOException {
+        return importPatients(source, options, null);
+    }
+
+    public PatientImportProgress importPatients(File source, PatientImportOptions options, PatientImportListener listener)
+            throws IOException {
+        if (options.getBatchSize() <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than zero");
+        }
+        PatientImportCheckpoint checkpoint = PatientImportCheckpoint.load(options.getCheckpointName(source));
+        PatientImportProgress progress = checkpoint.toProgress();
+        if (progress.isCompleted()) {
+            log.info("Import of {} already completed ({}), delete the global property {} to import it again", source,
+                    progress, checkpoint.getPropertyName());
+            return progress;
+        }
+
+        ImportContext context = new ImportContext(options);
+        try (PatientRecordReader reader = openReader(source, options);
+             PatientImportFailureWriter failures = new PatientImportFailureWriter(options.getFailuresFile(source))) {
+            if (progress.getProcessed() > 0) {
+                log.info("Resuming import of {} after {} records", source, progress.getProcessed());
+                reader.skip(progress.getProcessed());
+            }
+
+            List<PatientImportRecord> batch = new ArrayList<>(options.getBatchSize());
+            PatientImportRecord record;
+            while ((record = reader.next()) != null) {
+                batch.add(record);
+                if (batch.size() == options.getBatchSize()) {
+                    importBatch(batch, context, progress, failures, checkpoint, listener);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                importBatch(batch, context, progress, failures, checkpoint, listener);
+            }
+        }
+
+        progress.markCompleted();
+        saveCheckpoint(context, checkpoint, progress);
+        log.info("Finished import of {}: {}", source, progress);
+        return progress;
+    }
+
+    /**
+     * Imports a batch. Every transaction saves the checkpoint with the records it commits, and records are counted
+     * in file order, so the number of processed records in the checkpoint is always where a resumed import has to
+     * continue.
+     */
+    private void importBatch(List<PatientImportRecord> batch, ImportContext context, PatientImportProgress progress,
+            PatientImportFailureWriter failures, PatientImportCheckpoint checkpoint, PatientImportListener listener)
+            throws IOException {
+        context.refresh();
+        List<String> identifiers = context.identifierSourceService.generateIdentifiers(context.identifierSource,
+                batch.size(), IDENTIFIER_COMMENT);
+
+        // invalid records are reported before the batch is committed: a crash may report them twice, never loses them
+        String[] errors = new String[batch.size()];
+        List<PatientImportRecord> valid = new ArrayList<>(batch.size());
+        List<String> validIdentifiers = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            PatientImportRecord record = batch.get(i);
+            try {
+                toPatient(record, identifiers.get(i), context);
+                valid.add(record);
+                validIdentifiers.add(identifiers.get(i));
+            }
+            catch (APIException e) {
+                errors[i] = e.getMessage();
+                failures.write(record, errors[i]);
+            }
+        }
+        failures.flush();
+
+        try {
+            savePatients(valid, validIdentifiers, context, checkpoint,
+                    progress.plus(valid.size(), batch.size() - valid.size()));
+            for (int i = 0; i < batch.size(); i++) {
+                if (errors[i] == null) {
+                    progress.recordImported();
+                } else {
+                    progress.recordFailed();
+                }
+            }
+        }
+        catch (Exception batchFailure) {
+            // the batch was rolled back as a whole, save its records one by one to single out the failing ones
+            log.debug("Batch failed, retrying its records individually", batchFailure);
+            boolean checkpointed = true;
+            for (int i = 0; i < batch.size(); i++) {
+                PatientImportRecord record = batch.get(i);
+                if (errors[i] != null) {
+                    progress.recordFailed();
+                    checkpointed = false;
+                    continue;
+                }
+                Context.clearSession();
+                context.refresh();
+                try {
+                    savePatients(Collections.singletonList(record), Collections.singletonList(identifiers.get(i)),
+                            context, checkpoint, progress.plus(1, 0));
+                    progress.recordImported();
+                    checkpointed = true;
+                }
+                catch (Exception e) {
+                    log.debug("Unable to import record {}", record.getRecordNumber(), e);
+                    failures.write(record, e.getMessage());
+                    failures.flush();
+                    progress.recordFailed();
+                    checkpointed = false;
+                }
+            }
+            if (!checkpointed) {
+                saveCheckpoint(context, checkpoint, progress);
+            }
+        }
+
+        Context.flushSession();
+        Context.clearSession();
+        log.info("Imported batch: {}", progress);
+        if (listener != null) {
+            listener.batchCompleted(progress);
+        }
+    }
+
+    /**
+     * Saves the given records and the checkpoint counting them in a single transaction, which is committed, flushed
+     * included, before returning.
+     */
+    private void savePatients(final List<PatientImportRecord> records, final List<String> identifiers,
+            final ImportContext context, final PatientImportCheckpoint checkpoint, final PatientImportProgress progress) {
+        context.transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                PatientService patientService = Context.getPatientService();
+                for (int i = 0; i < records.size(); i++) {
+                    patientService.savePatient(toPatient(records.get(i), identifiers.get(i), context));
+                }
+                checkpoint.save(progress);
+            }
+        });
+    }
+
+    private void saveCheckpoint(ImportContext context, PatientImportCheckpoint checkpoint,
+            PatientImportProgress progress) {
+        List<PatientImportRecord> none = Collections.emptyList();
+        savePatients(none, Collections.<String> emptyList(), context, checkpoint, progress);
+    }
+
+    private Patient toPatient(PatientImportRecord record, String identifier, ImportContext context) {
+        if (StringUtils.isBlank(record.getGivenName()) || StringUtils.isBlank(record.getFamilyName())) {
+            throw new APIException("Given name and family name are required");
+        }
+        String gender = StringUtils.upperCase(StringUtils.trimToNull(record.getGender()));
+        if (gender == null || gender.length() != 1 || "MFOU".indexOf(gender.charAt(0)) < 0) {
+            throw new APIException("Invalid gender: " + record.getGender());
+        }
+
+        Patient patient = new Patient();
+        patient.addName(new PersonName(record.getGivenName(), record.getMiddleName(), record.getFamilyName()));
+        patient.setGender(gender);
+        patient.setBirthdate(parseDate(record.getBirthdate()));
+        patient.setBirthdateEstimated(Boolean.parseBoolean(StringUtils.trim(record.getBirthdateEstimated())));
+
+        PatientIdentifier paradygmIdentifier = new PatientIdentifier(identifier, context.identifierType, context.location);
+        paradygmIdentifier.setPreferred(true);
+        patient.addIdentifier(paradygmIdentifier);
+
+        if (context.legacyIdentifierType != null && StringUtils.isNotBlank(record.getLegacyIdentifier())) {
+            patient.addIdentifier(new PatientIdentifier(record.getLegacyIdentifier().trim(), context.legacyIdentifierType,
+                    context.location));
+        }
+        return patient;
+    }
+
+    private Date parseDate(String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        try {
+            return Date.from(LocalDate.parse(value.trim()).atStartOfDay(ZoneId.systemDefault()).toInstant());
+        }
+        catch (DateTimeParseException e) {
+            throw new APIException("Invalid birthdate, expected yyyy-MM-dd: " + value);
+        }
+    }
+
+    private PatientRecordReader openReader(File source, PatientImportOptions options) throws IOException {
+        PatientImportOptions.Format format = options.getFormat() != null ? options.getFormat()
+                : PatientImportOptions.Format.of(source);
+        Reader reader = Files.newBufferedReader(source.toPath(), StandardCharsets.UTF_8);
+        return format == PatientImportOptions.Format.JSON ? new JsonPatientRecordReader(reader)
+                : new CsvPatientRecordReader(reader);
+    }
+
+    /**
+     * Metadata shared by all records. It is looked up again after the session is cleared instead of being kept
+     * as detached entities.
+     */
+    private static class ImportContext {
+
+        private final PatientImportOptions options;
+
+        private final IdentifierSourceService identifierSourceService = Context.getService(IdentifierSourceService.class);
+
+        private final TransactionTemplate transactionTemplate = new TransactionTemplate(
+                Context.getRegisteredComponent("transactionManager", PlatformTransactionManager.class));
+
+        private final String identifierTypeUuid;
+
+        private IdentifierSource identifierSource;
+
+        private PatientIdentifierType identifierType;
+
+        private PatientIdentifierType legacyIdentifierType;
+
+        private Location location;
+
+        ImportContext(PatientImportOptions options) {
+            this.options = options;
+            IdentifierSource source = identifierSourceService
+                    .getIdentifierSourceByUuid(IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID);
+            if (source == null) {
+                throw new APIException("Identifier Source with uuid "
+                        + IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID + " is not found");
+            }
+            this.identifierTypeUuid = source.getIdentifierType().getUuid();
+        }
+
+        void refresh() {
+            PatientService patientService = Context.getPatientService();
+            identifierSource = identifierSourceService
+                    .getIdentifierSourceByUuid(IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID);
+            identifierType = patientService.getPatientIdentifierTypeByUuid(identifierTypeUuid);
+            legacyIdentifierType = options.getLegacyIdentifierTypeUuid() == null ? null
+                    : patientService.getPatientIdentifierTypeByUuid(options.getLegacyIdentifierTypeUuid());
+            location = options.getLocationUuid() == null ? Context.getLocationService().getDefaultLocation()
+                    : Context.getLocationService().getLocationByUuid(options.getLocationUuid());
+        }
+    }
+}
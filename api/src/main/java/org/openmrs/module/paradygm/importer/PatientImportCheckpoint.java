@@ -0,0 +1,83 @@
+package org.openmrs.module.paradygm.importer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.api.context.Context;
+
+/**
+ * Persists how far an import got so that an interrupted import continues after the last committed batch.
+ *
+ * The checkpoint is a global property named {@value #GP_PREFIX} followed by the checkpoint name. It is saved in
+ * the same transaction as the patients it counts, so a crash or kill at any point leaves it pointing exactly
+ * after the last committed record.
+ */
+class PatientImportCheckpoint {
+
+    static final String GP_PREFIX = "paradygm.import.checkpoint.";
+
+    private static final int MAX_PROPERTY_LENGTH = 255;
+
+    private static final String PROCESSED = "processed";
+
+    private static final String IMPORTED = "imported";
+
+    private static final String FAILED = "failed";
+
+    private static final String COMPLETED = "completed";
+
+    private final String propertyName;
+
+    private final String value;
+
+    private PatientImportCheckpoint(String propertyName, String value) {
+        this.propertyName = propertyName;
+        this.value = value;
+    }
+
+    static PatientImportCheckpoint load(String name) {
+        String propertyName = GP_PREFIX + name;
+        if (StringUtils.isBlank(name) || propertyName.length() > MAX_PROPERTY_LENGTH) {
+            throw new IllegalArgumentException("Invalid import checkpoint name: " + name);
+        }
+        String value = Context.getAdministrationService().getGlobalProperty(propertyName);
+        return new PatientImportCheckpoint(propertyName, value);
+    }
+
+    String getPropertyName() {
+        return propertyName;
+    }
+
+    PatientImportProgress toProgress() {
+        PatientImportProgress progress = new PatientImportProgress(get(PROCESSED), get(IMPORTED), get(FAILED));
+        if (Boolean.parseBoolean(getValue(COMPLETED))) {
+            progress.markCompleted();
+        }
+        return progress;
+    }
+
+    /**
+     * Saves the given progress. Must be called in the transaction that commits the records it counts.
+     */
+    void save(PatientImportProgress progress) {
+        Context.getAdministrationService().setGlobalProperty(propertyName, PROCESSED + "=" + progress.getProcessed()
+                + ";" + IMPORTED + "=" + progress.getImported() + ";" + FAILED + "=" + progress.getFailed() + ";"
+                + COMPLETED + "=" + progress.isCompleted());
+    }
+
+    private long get(String key) {
+        String number = getValue(key);
+        return number == null ? 0 : Long.parseLong(number);
+    }
+
+    private String getValue(String key) {
+        if (value == null) {
+            return null;
+        }
+        for (String entry : value.split(";")) {
+            int separator = entry.indexOf('=');
+            if (separator > 0 && entry.substring(0, separator).trim().equals(key)) {
+                return entry.substring(separator + 1).trim();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,71 @@
+package org.openmrs.module.paradygm.importer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends rows that could not be imported to a CSV file, with the original values plus the record number and
+ * the reason, so they can be fixed and imported again.
+ */
+class PatientImportFailureWriter implements Closeable {
+
+    private final File file;
+
+    private Writer writer;
+
+    PatientImportFailureWriter(File file) {
+        this.file = file;
+    }
+
+    void write(PatientImportRecord record, String reason) throws IOException {
+        if (writer == null) {
+            boolean newFile = !file.exists() || file.length() == 0;
+            writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+            if (newFile) {
+                writer.write("record_number");
+                for (String field : PatientImportRecord.FIELDS) {
+                    writer.write(',');
+                    writer.write(field);
+                }
+                writer.write(",error\n");
+            }
+        }
+        writer.write(String.valueOf(record.getRecordNumber()));
+        for (String field : PatientImportRecord.FIELDS) {
+            writer.write(',');
+            writer.write(escape(record.get(field)));
+        }
+        writer.write(',');
+        writer.write(escape(reason));
+        writer.write('\n');
+    }
+
+    void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,9 @@
+package org.openmrs.module.paradygm.importer;
+
+/**
+ * Receives progress of a running {@link PatientBatchImporter} after every committed batch.
+ */
+public interface PatientImportListener {
+
+    void batchCompleted(PatientImportProgress progress);
+}
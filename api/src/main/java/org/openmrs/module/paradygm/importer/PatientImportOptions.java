@@ -0,0 +1,97 @@
+package org.openmrs.module.paradygm.importer;
+
+import java.io.File;
+
+/**
+ * Settings of a single {@link PatientBatchImporter} run.
+ */
+public class PatientImportOptions {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Supported import file formats.
+     */
+    public enum Format {
+        CSV, JSON;
+
+        static Format of(File file) {
+            return file.getName().toLowerCase().endsWith(".json") ? JSON : CSV;
+        }
+    }
+
+    private Format format;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private String locationUuid;
+
+    private String legacyIdentifierTypeUuid;
+
+    private String checkpointName;
+
+    private File failuresFile;
+
+    /**
+     * @return the format to read, or null to derive it from the file extension
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return uuid of the location the generated Paradygm identifiers are assigned to
+     */
+    public String getLocationUuid() {
+        return locationUuid;
+    }
+
+    public void setLocationUuid(String locationUuid) {
+        this.locationUuid = locationUuid;
+    }
+
+    /**
+     * @return uuid of the identifier type the legacy registry identifier is kept under, or null to drop it
+     */
+    public String getLegacyIdentifierTypeUuid() {
+        return legacyIdentifierTypeUuid;
+    }
+
+    public void setLegacyIdentifierTypeUuid(String legacyIdentifierTypeUuid) {
+        this.legacyIdentifierTypeUuid = legacyIdentifierTypeUuid;
+    }
+
+    /**
+     * @return the name the progress of the import is saved under, defaults to the name of the source file
+     */
+    public String getCheckpointName(File source) {
+        return checkpointName != null ? checkpointName : source.getName();
+    }
+
+    public void setCheckpointName(String checkpointName) {
+        this.checkpointName = checkpointName;
+    }
+
+    /**
+     * @return the file failed rows are written to, defaults to {@code <source>.failures.csv}
+     */
+    public File getFailuresFile(File source) {
+        return failuresFile != null ? failuresFile : new File(source.getPath() + ".failures.csv");
+    }
+
+    public void setFailuresFile(File failuresFile) {
+        this.failuresFile = failuresFile;
+    }
+}
@@ -0,0 +1,84 @@
+package org.openmrs.module.paradygm.importer;
+
+/**
+ * Running totals of a patient import, including what was done before the import was last resumed.
+ */
+public class PatientImportProgress {
+
+    private final long startedAt = System.nanoTime();
+
+    private final long resumedFrom;
+
+    private long processed;
+
+    private long imported;
+
+    private long failed;
+
+    private boolean completed;
+
+    PatientImportProgress(long processed, long imported, long failed) {
+        this.resumedFrom = processed;
+        this.processed = processed;
+        this.imported = imported;
+        this.failed = failed;
+    }
+
+    void recordImported() {
+        processed++;
+        imported++;
+    }
+
+    void recordFailed() {
+        processed++;
+        failed++;
+    }
+
+    /**
+     * @return the totals once the given number of further records are imported and failed, for the checkpoint
+     *         saved with them
+     */
+    PatientImportProgress plus(long importedRecords, long failedRecords) {
+        PatientImportProgress next = new PatientImportProgress(processed + importedRecords + failedRecords,
+                imported + importedRecords, failed + failedRecords);
+        next.completed = completed;
+        return next;
+    }
+
+    void markCompleted() {
+        completed = true;
+    }
+
+    /**
+     * @return number of records read so far, successfully or not
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return records processed per second since this run started
+     */
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        return seconds > 0 ? (processed - resumedFrom) / seconds : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("processed=%d, imported=%d, failed=%d, throughput=%.1f records/s", processed, imported,
+                failed, getThroughput());
+    }
+}
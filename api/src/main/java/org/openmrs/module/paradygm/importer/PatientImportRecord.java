@@ -0,0 +1,160 @@
+package org.openmrs.module.paradygm.importer;
+
+/**
+ * One patient row read from an import file. Values are kept as read; conversion and validation happen when
+ * the record is turned into a Patient so that a bad row only fails itself.
+ */
+public class PatientImportRecord {
+
+    public static final String GIVEN_NAME = "given_name";
+
+    public static final String MIDDLE_NAME = "middle_name";
+
+    public static final String FAMILY_NAME = "family_name";
+
+    public static final String GENDER = "gender";
+
+    public static final String BIRTHDATE = "birthdate";
+
+    public static final String BIRTHDATE_ESTIMATED = "birthdate_estimated";
+
+    public static final String LEGACY_IDENTIFIER = "legacy_identifier";
+
+    static final String[] FIELDS = { GIVEN_NAME, MIDDLE_NAME, FAMILY_NAME, GENDER, BIRTHDATE, BIRTHDATE_ESTIMATED,
+            LEGACY_IDENTIFIER };
+
+    private long recordNumber;
+
+    private String givenName;
+
+    private String middleName;
+
+    private String familyName;
+
+    private String gender;
+
+    private String birthdate;
+
+    private String birthdateEstimated;
+
+    private String legacyIdentifier;
+
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    public void setRecordNumber(long recordNumber) {
+        this.recordNumber = recordNumber;
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    public void setGivenName(String givenName) {
+        this.givenName = givenName;
+    }
+
+    public String getMiddleName() {
+        return middleName;
+    }
+
+    public void setMiddleName(String middleName) {
+        this.middleName = middleName;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public void setFamilyName(String familyName) {
+        this.familyName = familyName;
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public void setGender(String gender) {
+        this.gender = gender;
+    }
+
+    public String getBirthdate() {
+        return birthdate;
+    }
+
+    public void setBirthdate(String birthdate) {
+        this.birthdate = birthdate;
+    }
+
+    public String getBirthdateEstimated() {
+        return birthdateEstimated;
+    }
+
+    public void setBirthdateEstimated(String birthdateEstimated) {
+        this.birthdateEstimated = birthdateEstimated;
+    }
+
+    public String getLegacyIdentifier() {
+        return legacyIdentifier;
+    }
+
+    public void setLegacyIdentifier(String legacyIdentifier) {
+        this.legacyIdentifier = legacyIdentifier;
+    }
+
+    /**
+     * Sets a field by its column name, ignoring unknown columns.
+     */
+    void set(String field, String value) {
+        if (field == null) {
+            return;
+        }
+        switch (field.trim().toLowerCase()) {
+            case GIVEN_NAME:
+                givenName = value;
+                break;
+            case MIDDLE_NAME:
+                middleName = value;
+                break;
+            case FAMILY_NAME:
+                familyName = value;
+                break;
+            case GENDER:
+                gender = value;
+                break;
+            case BIRTHDATE:
+                birthdate = value;
+                break;
+            case BIRTHDATE_ESTIMATED:
+                birthdateEstimated = value;
+                break;
+            case LEGACY_IDENTIFIER:
+                legacyIdentifier = value;
+                break;
+            default:
+                break;
+        }
+    }
+
+    String get(String field) {
+        switch (field) {
+            case GIVEN_NAME:
+                return givenName;
+            case MIDDLE_NAME:
+                return middleName;
+            case FAMILY_NAME:
+                return familyName;
+            case GENDER:
+                return gender;
+            case BIRTHDATE:
+                return birthdate;
+            case BIRTHDATE_ESTIMATED:
+                return birthdateEstimated;
+            case LEGACY_IDENTIFIER:
+                return legacyIdentifier;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.openmrs.module.paradygm.importer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams patient records out of an import file one at a time, so memory use does not depend on the file size.
+ */
+public interface PatientRecordReader extends Closeable {
+
+    /**
+     * @return the next record or null once the file is exhausted
+     */
+    PatientImportRecord next() throws IOException;
+
+    /**
+     * Skips the given number of records, used to resume an interrupted import.
+     *
+     * @return the number of records actually skipped
+     */
+    default long skip(long records) throws IOException {
+        long skipped = 0;
+        while (skipped < records && next() != null) {
+            skipped++;
+        }
+        return skipped;
+    }
+}
@@ -0,0 +1,66 @@
+package org.openmrs.module.paradygm.lookup;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierEnhancementRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Fills the {@link IdentifierLookupIndex} with the identifiers of existing patients. Meant to run once in a
+ * daemon thread when the module starts; identifiers are read in pages of {@value #BATCH_SIZE} in read-only
+ * transactions, with the session cleared in between, so it neither holds a long transaction nor grows the
+ * session.
+ */
+public class IdentifierIndexBackfill implements Runnable {
+
+    static final int BATCH_SIZE = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(IdentifierIndexBackfill.class);
+
+    private final IdentifierLookupIndex index = IdentifierLookupIndex.getInstance();
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        try {
+            Map<String, String> prefixes = IdentifierEnhancementRegistry.getInstance()
+                    .getPrefixesByIdentifierType(Context.getService(IdentifierSourceService.class));
+            if (prefixes.isEmpty()) {
+                log.warn("No Paradygm identifier source is available, not backfilling the identifier lookup index");
+                return;
+            }
+            IdentifierLookupDao dao = Context.getRegisteredComponent("paradygm.identifierLookupDao",
+                    IdentifierLookupDao.class);
+            TransactionTemplate transactionTemplate = new TransactionTemplate(
+                    Context.getRegisteredComponent("transactionManager", PlatformTransactionManager.class));
+            transactionTemplate.setReadOnly(true);
+
+            int lastIdentifierId = 0;
+            int indexed = 0;
+            List<Object[]> rows;
+            do {
+                final int after = lastIdentifierId;
+                rows = transactionTemplate.execute(status -> dao.getIdentifiers(prefixes.keySet(), after, BATCH_SIZE));
+                for (Object[] row : rows) {
+                    lastIdentifierId = (Integer) row[0];
+                    if (index.add((Integer) row[1], prefixes.get((String) row[2]), (String) row[3])) {
+                        indexed++;
+                    }
+                }
+                Context.clearSession();
+            } while (rows.size() == BATCH_SIZE);
+
+            index.setBackfilled(true);
+            log.info("Indexed {} Paradygm IDs for lookup in {} ms", indexed, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Unable to backfill the Paradygm identifier lookup index, only patients saved from now on are indexed",
+                    e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.openmrs.module.paradygm.lookup;
+
+import java.util.List;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierEnhancementRegistry;
+import org.openmrs.module.paradygm.IdentifierSourceCache;
+import org.openmrs.module.paradygm.IdentifierSourceCache.CachedIdentifierSource;
+import org.openmrs.module.paradygm.event.PatientSaveHandler;
+import org.openmrs.module.paradygm.event.PatientSavedEvent;
+import org.openmrs.module.paradygm.event.PatientSavedEvent.SavedIdentifier;
+
+/**
+ * Adds the Paradygm IDs of saved patients to the {@link IdentifierLookupIndex}, picking the identifiers the
+ * same way identifier enhancement does: those issued by a configured source or, if there is none, the preferred
+ * identifier with the default source.
+ */
+public class IdentifierIndexHandler implements PatientSaveHandler {
+
+    private final IdentifierLookupIndex index;
+
+    private final IdentifierEnhancementRegistry registry = IdentifierEnhancementRegistry.getInstance();
+
+    private IdentifierSourceService identifierSourceService;
+
+    public IdentifierIndexHandler() {
+        this(IdentifierLookupIndex.getInstance());
+    }
+
+    IdentifierIndexHandler(IdentifierLookupIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public void patientsSaved(List<PatientSavedEvent> events) {
+        IdentifierSourceService service = getIdentifierSourceService();
+        for (PatientSavedEvent event : events) {
+            if (event.getPatientId() == null) {
+                continue;
+            }
+            boolean indexed = false;
+            SavedIdentifier preferred = null;
+            for (SavedIdentifier identifier : event.getIdentifiers()) {
+                String sourceUuid = registry.getSourceUuid(identifier.getIdentifierTypeUuid(), service);
+                if (sourceUuid != null) {
+                    indexed = true;
+                    add(event, identifier, sourceUuid, service);
+                }
+                if (identifier.isPreferred()) {
+                    preferred = identifier;
+                }
+            }
+            if (!indexed && preferred != null) {
+                add(event, preferred, registry.getDefaultSourceUuid(), service);
+            }
+        }
+    }
+
+    private void add(PatientSavedEvent event, SavedIdentifier identifier, String sourceUuid,
+                     IdentifierSourceService service) {
+        CachedIdentifierSource source = IdentifierSourceCache.getInstance().get(sourceUuid, service);
+        if (source != null) {
+            index.add(event.getPatientId(), source.getPrefix(), identifier.getIdentifier());
+        }
+    }
+
+    private IdentifierSourceService getIdentifierSourceService() {
+        return identifierSourceService != null ? identifierSourceService
+                : Context.getService(IdentifierSourceService.class);
+    }
+
+    // Setter for dependency injection in tests
+    public void setIdentifierSourceService(IdentifierSourceService identifierSourceService) {
+        this.identifierSourceService = identifierSourceService;
+    }
+}
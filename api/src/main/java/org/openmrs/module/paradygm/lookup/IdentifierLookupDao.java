@@ -0,0 +1,54 @@
+package org.openmrs.module.paradygm.lookup;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Reads Paradygm patient identifiers without loading patients: in keyset pages for the
+ * {@link IdentifierLookupIndex}, so the backfill never runs offset queries over the whole table, and newest first
+ * when the module starts.
+ */
+@Repository("paradygm.identifierLookupDao")
+public class IdentifierLookupDao {
+
+    @Autowired
+    private DbSessionFactory sessionFactory;
+
+    /**
+     * Returns up to {@code maxResults} active identifiers of non-voided patients of the given types with an id
+     * greater than {@code afterIdentifierId}, ordered by id, each as {@code [patientIdentifierId, patientId,
+     * identifierTypeUuid, identifier]}.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getIdentifiers(Collection<String> identifierTypeUuids, int afterIdentifierId, int maxResults) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("select pi.patientIdentifierId, pi.patient.patientId, pi.identifierType.uuid, pi.identifier"
+                        + " from PatientIdentifier pi"
+                        + " where pi.patientIdentifierId > :after and pi.voided = false and pi.patient.voided = false"
+                        + " and pi.identifierType.uuid in (:identifierTypes)"
+                        + " order by pi.patientIdentifierId")
+                .setParameter("after", afterIdentifierId)
+                .setParameterList("identifierTypes", identifierTypeUuids)
+                .setMaxResults(maxResults)
+                .list();
+    }
+
+    /**
+     * Returns the most recently created identifiers of the given type, voided ones included since they used up
+     * their sequence value all the same.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getNewestIdentifiers(String identifierTypeUuid, int maxResults) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("select pi.identifier from PatientIdentifier pi"
+                        + " where pi.identifierType.uuid = :identifierType"
+                        + " order by pi.patientIdentifierId desc")
+                .setParameter("identifierType", identifierTypeUuid)
+                .setMaxResults(maxResults)
+                .list();
+    }
+}
@@ -0,0 +1,352 @@
+package org.openmrs.module.paradygm.lookup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.paradygm.IdentifierTemplate;
+import org.openmrs.module.paradygm.ParadygmIdFormatter;
+import org.openmrs.module.paradygm.ParadygmIdFormatter.ParsedId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of Paradygm IDs, so the front desk can find a patient by whatever form of the ID a clerk
+ * types without a {@code LIKE} scan of the patient_identifier table.
+ *
+ * Every indexed ID is kept under its source prefix by its year and sequence, whichever template it was issued
+ * with. A typed ID is normalised by dropping hyphens, spaces and case, and the digits after the prefix are read
+ * with the field widths of the current and each earlier template, e.g. for the default template:
+ * <ul>
+ * <li>{@code PDG200-25-123-456}, {@code pdg20025123456} or {@code 25123456}: year 25, sequence 123456</li>
+ * <li>{@code 123456} or {@code 123-456}: sequence 123456 of any year, newest year first</li>
+ * </ul>
+ * A typed full ID only matches if it is exactly the normalised ID that template formats, check digit included.
+ * Without a known prefix every prefix is searched. Lookups are a handful of hash probes per template.
+ *
+ * The index is filled as patients are saved and by the {@link IdentifierIndexBackfill} when the module starts.
+ * Entries are not removed when an identifier is voided or changed; {@link #findPatients(String, PatientService)}
+ * checks every hit against the patient and drops stale entries.
+ */
+public class IdentifierLookupIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(IdentifierLookupIndex.class);
+
+    private static final IdentifierLookupIndex INSTANCE = new IdentifierLookupIndex();
+
+    private final ParadygmIdFormatter formatter = ParadygmIdFormatter.getInstance();
+
+    private final ConcurrentMap<String, PrefixEntries> entries = new ConcurrentHashMap<>();
+
+    private volatile int[] years = new int[0];
+
+    private volatile boolean backfilled;
+
+    public static IdentifierLookupIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Indexes an identifier of the given patient.
+     *
+     * @return false if the identifier is not a Paradygm ID with the given prefix
+     */
+    public boolean add(int patientId, String prefix, String identifier) {
+        ParsedId parsed;
+        try {
+            parsed = formatter.parse(identifier, prefix);
+        } catch (IllegalArgumentException e) {
+            log.trace("Not indexing identifier '{}' of patient {}: {}", identifier, patientId, e.getMessage());
+            return false;
+        }
+        addYear(parsed.getYear());
+        entries.computeIfAbsent(prefix, PrefixEntries::new).add(parsed, patientId);
+        return true;
+    }
+
+    /**
+     * @return the ids of the patients whose indexed ID matches the typed value, newest year first, empty if
+     *         there are none or the value is not a form of a Paradygm ID
+     */
+    public List<Integer> find(String typed) {
+        List<Integer> patientIds = new ArrayList<>(1);
+        for (Hit hit : findHits(typed)) {
+            if (!patientIds.contains(hit.patientId)) {
+                patientIds.add(hit.patientId);
+            }
+        }
+        return patientIds;
+    }
+
+    /**
+     * Resolves the typed value to patients, loading each of them by primary key. Hits whose patient is voided
+     * or no longer carries the indexed ID are removed from the index and not returned.
+     */
+    public List<Patient> findPatients(String typed, PatientService patientService) {
+        List<Hit> hits = findHits(typed);
+        if (hits.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Patient> patients = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            Patient patient = patientService.getPatient(hit.patientId);
+            if (patient != null && !patient.getVoided() && carries(patient, hit)) {
+                if (!patients.contains(patient)) {
+                    patients.add(patient);
+                }
+            } else {
+                log.debug("Removing stale index entry {} {} of patient {}", hit.prefixEntries.prefix, hit.id, hit.patientId);
+                hit.prefixEntries.remove(hit.id, hit.patientId);
+            }
+        }
+        return patients;
+    }
+
+    public boolean isBackfilled() {
+        return backfilled;
+    }
+
+    void setBackfilled(boolean backfilled) {
+        this.backfilled = backfilled;
+    }
+
+    /**
+     * @return the number of indexed IDs
+     */
+    public int size() {
+        int size = 0;
+        for (PrefixEntries prefixEntries : entries.values()) {
+            size += prefixEntries.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        entries.clear();
+        synchronized (this) {
+            years = new int[0];
+        }
+        backfilled = false;
+    }
+
+    private List<Hit> findHits(String typed) {
+        String normalized = normalize(typed);
+        if (normalized.isEmpty()) {
+            return Collections.emptyList();
+        }
+        boolean allDigits = isDigits(normalized, 0);
+        List<Hit> hits = null;
+        for (PrefixEntries prefixEntries : entries.values()) {
+            String digits = null;
+            if (!prefixEntries.normalizedPrefix.isEmpty() && normalized.startsWith(prefixEntries.normalizedPrefix)
+                    && isDigits(normalized, prefixEntries.normalizedPrefix.length())) {
+                digits = normalized.substring(prefixEntries.normalizedPrefix.length());
+            } else if (allDigits) {
+                digits = normalized;
+            }
+            if (digits != null && !digits.isEmpty()) {
+                hits = probe(prefixEntries, digits, hits);
+            }
+        }
+        if (hits == null) {
+            return Collections.emptyList();
+        }
+        // newest year first, whatever prefix it was found under
+        hits.sort((a, b) -> {
+            if (a.id.getYear() != b.id.getYear()) {
+                return Integer.compare(b.id.getYear(), a.id.getYear());
+            }
+            if (a.id.getSequence() != b.id.getSequence()) {
+                return Long.compare(b.id.getSequence(), a.id.getSequence());
+            }
+            return Integer.compare(a.patientId, b.patientId);
+        });
+        return hits;
+    }
+
+    private List<Hit> probe(PrefixEntries prefixEntries, String digits, List<Hit> hits) {
+        List<ParsedId> probed = new ArrayList<>(years.length + 1);
+        for (IdentifierTemplate template : formatter.getTemplates()) {
+            // the whole ID, year and check digit included
+            ParsedId whole = template.parseDigits(digits);
+            if (whole != null && !probed.contains(whole) && prefixEntries.ids.containsKey(whole)
+                    && isFormattedAs(template, prefixEntries, whole, digits)) {
+                probed.add(whole);
+                hits = collect(prefixEntries, whole, hits);
+            }
+            // only the sequence, of any year
+            if (digits.length() <= template.getSequenceDigits()) {
+                long sequence = Long.parseLong(digits);
+                for (int year : years) {
+                    ParsedId id = new ParsedId(year, sequence);
+                    if (!probed.contains(id)) {
+                        probed.add(id);
+                        hits = collect(prefixEntries, id, hits);
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Whether the typed digits are the ID the template formats, so a wrong check digit or literal is no match.
+     */
+    private static boolean isFormattedAs(IdentifierTemplate template, PrefixEntries prefixEntries, ParsedId id,
+            String digits) {
+        StringBuilder formatted = new StringBuilder(32);
+        try {
+            template.appendTo(formatted, prefixEntries.prefix, id.getYear(), id.getSequence());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        String normalized = normalize(formatted.toString());
+        return normalized.length() == prefixEntries.normalizedPrefix.length() + digits.length()
+                && normalized.startsWith(prefixEntries.normalizedPrefix)
+                && normalized.endsWith(digits);
+    }
+
+    private List<Hit> collect(PrefixEntries prefixEntries, ParsedId id, List<Hit> hits) {
+        int[] patientIds = prefixEntries.ids.get(id);
+        if (patientIds == null) {
+            return hits;
+        }
+        List<Hit> result = hits != null ? hits : new ArrayList<Hit>(patientIds.length);
+        for (int patientId : patientIds) {
+            result.add(new Hit(prefixEntries, id, patientId));
+        }
+        return result;
+    }
+
+    /**
+     * Whether one of the active identifiers of the patient is the hit, in whichever template it was issued.
+     */
+    private boolean carries(Patient patient, Hit hit) {
+        for (PatientIdentifier patientIdentifier : patient.getActiveIdentifiers()) {
+            ParsedId parsed;
+            try {
+                parsed = formatter.parse(patientIdentifier.getIdentifier(), hit.prefixEntries.prefix);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (hit.id.equals(parsed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void addYear(int year) {
+        int[] current = years;
+        for (int known : current) {
+            if (known == year) {
+                return;
+            }
+        }
+        int[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = year;
+        Arrays.sort(updated);
+        // newest year first
+        for (int i = 0, j = updated.length - 1; i < j; i++, j--) {
+            int swap = updated[i];
+            updated[i] = updated[j];
+            updated[j] = swap;
+        }
+        years = updated;
+    }
+
+    /**
+     * Upper case without hyphens, whitespace or other separators.
+     */
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toUpperCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isDigits(String value, int start) {
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The IDs indexed under one prefix, by year and sequence. Almost every ID maps to a single patient.
+     */
+    private static final class PrefixEntries {
+
+        private final String prefix;
+
+        private final String normalizedPrefix;
+
+        private final ConcurrentMap<ParsedId, int[]> ids = new ConcurrentHashMap<>();
+
+        PrefixEntries(String prefix) {
+            this.prefix = prefix;
+            this.normalizedPrefix = normalize(prefix);
+        }
+
+        void add(ParsedId id, int patientId) {
+            ids.merge(id, new int[] { patientId }, (current, added) -> {
+                for (int known : current) {
+                    if (known == patientId) {
+                        return current;
+                    }
+                }
+                int[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = patientId;
+                return updated;
+            });
+        }
+
+        void remove(ParsedId id, int patientId) {
+            ids.computeIfPresent(id, (key, current) -> {
+                int[] updated = new int[current.length];
+                int length = 0;
+                for (int known : current) {
+                    if (known != patientId) {
+                        updated[length++] = known;
+                    }
+                }
+                return length == 0 ? null : Arrays.copyOf(updated, length);
+            });
+        }
+
+        int size() {
+            return ids.size();
+        }
+    }
+
+    private static final class Hit {
+
+        private final PrefixEntries prefixEntries;
+
+        private final ParsedId id;
+
+        private final int patientId;
+
+        Hit(PrefixEntries prefixEntries, ParsedId id, int patientId) {
+            this.prefixEntries = prefixEntries;
+            this.id = id;
+            this.patientId = patientId;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.openmrs.module.paradygm.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with fixed log-linear buckets, in the spirit of HdrHistogram: every power of two
+ * from 1 microsecond to about 34 seconds is split into two buckets, so a recorded value is off by at most a
+ * third of its bucket. Every bucket is a striped {@link LongAdder}, so recording from many threads at once does
+ * not contend on a single cache line.
+ */
+public class LatencyHistogram {
+
+    private static final int SMALLEST_POWER = 10;
+
+    private static final int LARGEST_POWER = 35;
+
+    /**
+     * Inclusive upper bounds of the buckets in nanoseconds; anything larger goes into an extra overflow bucket.
+     */
+    private static final long[] UPPER_BOUNDS = upperBounds();
+
+    private final LongAdder[] buckets = new LongAdder[UPPER_BOUNDS.length + 1];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[bucketIndex(value)].increment();
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}.
+     *
+     * @return the current {@link System#nanoTime()}
+     */
+    public long recordSince(long startNanos) {
+        long now = System.nanoTime();
+        record(now - startNanos);
+        return now;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the inclusive upper bounds of the buckets in nanoseconds, without the overflow bucket
+     */
+    public static long[] getUpperBounds() {
+        return UPPER_BOUNDS.clone();
+    }
+
+    /**
+     * @return the number of recorded values per bucket, the last element being the overflow bucket
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return an estimate of the given quantile (0..1) in nanoseconds, the upper bound of the bucket it falls in
+     */
+    public long getQuantileNanos(double quantile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < UPPER_BOUNDS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(UPPER_BOUNDS[i], getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos <= UPPER_BOUNDS[0]) {
+            return 0;
+        }
+        if (nanos > UPPER_BOUNDS[UPPER_BOUNDS.length - 1]) {
+            return UPPER_BOUNDS.length;
+        }
+        // the power of two the value does not exceed, then which half of the octave below it
+        int power = 64 - Long.numberOfLeadingZeros(nanos - 1);
+        long octaveStart = 1L << (power - 1);
+        int half = nanos > octaveStart + (octaveStart >> 1) ? 1 : 0;
+        return (power - 1 - SMALLEST_POWER) * 2 + 1 + half;
+    }
+
+    private static long[] upperBounds() {
+        long[] bounds = new long[(LARGEST_POWER - SMALLEST_POWER) * 2 + 1];
+        bounds[0] = 1L << SMALLEST_POWER;
+        for (int power = SMALLEST_POWER; power < LARGEST_POWER; power++) {
+            int i = (power - SMALLEST_POWER) * 2 + 1;
+            bounds[i] = (1L << power) + (1L << (power - 1));
+            bounds[i + 1] = 1L << (power + 1);
+        }
+        return bounds;
+    }
+}
@@ -0,0 +1,171 @@
+package org.openmrs.module.paradygm.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput counters and latency histograms of the registration and login paths, including the phases of
+ * Paradygm ID generation. Everything is striped ({@link LongAdder} based), so recording from every request thread
+ * never becomes a contention point.
+ *
+ * Published in the Prometheus text format by {@link PrometheusTextFormat}.
+ */
+public class ParadygmMetrics {
+
+    private static final ParadygmMetrics INSTANCE = new ParadygmMetrics();
+
+    /**
+     * The phases of {@code IdentifierEnhancementFactory} that are timed.
+     */
+    public enum Phase {
+        SOURCE_LOOKUP, PARSE, FORMAT, SEQUENCE_RESET
+    }
+
+    private final LongAdder registrations = new LongAdder();
+
+    private final LongAdder failedRegistrations = new LongAdder();
+
+    private final LongAdder sequenceResets = new LongAdder();
+
+    private final LongAdder logins = new LongAdder();
+
+    private final LongAdder roleGrants = new LongAdder();
+
+    private final LongAdder duplicatesFlagged = new LongAdder();
+
+    private final LongAdder duplicatesRejected = new LongAdder();
+
+    private final LatencyHistogram registrationLatency = new LatencyHistogram();
+
+    private final LatencyHistogram enhancementLatency = new LatencyHistogram();
+
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+
+    private final Map<Phase, LatencyHistogram> phaseLatencies = new EnumMap<>(Phase.class);
+
+    ParadygmMetrics() {
+        for (Phase phase : Phase.values()) {
+            phaseLatencies.put(phase, new LatencyHistogram());
+        }
+    }
+
+    public static ParadygmMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a new patient saved through {@code PatientService.savePatient}, timed from {@code startNanos}.
+     */
+    public void recordRegistration(long startNanos, boolean saved) {
+        registrationLatency.recordSince(startNanos);
+        if (saved) {
+            registrations.increment();
+        } else {
+            failedRegistrations.increment();
+        }
+    }
+
+    /**
+     * Records one call of {@code IdentifierEnhancementFactory.enhanceIdentifier}, timed from {@code startNanos}.
+     */
+    public void recordEnhancement(long startNanos) {
+        enhancementLatency.recordSince(startNanos);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos} against the given phase of ID generation.
+     *
+     * @return the current {@link System#nanoTime()}, so consecutive phases can be chained
+     */
+    public long recordPhase(Phase phase, long startNanos) {
+        return phaseLatencies.get(phase).recordSince(startNanos);
+    }
+
+    public void recordSequenceReset() {
+        sequenceResets.increment();
+    }
+
+    /**
+     * Records the time the Paradygm user listener added to a login, from {@code startNanos}.
+     */
+    public void recordLogin(long startNanos) {
+        loginLatency.recordSince(startNanos);
+        logins.increment();
+    }
+
+    public void recordRoleGrant() {
+        roleGrants.increment();
+    }
+
+    /**
+     * Records a new patient found to be a likely duplicate, and whether it was rejected or only flagged.
+     */
+    public void recordDuplicate(boolean rejected) {
+        if (rejected) {
+            duplicatesRejected.increment();
+        } else {
+            duplicatesFlagged.increment();
+        }
+    }
+
+    public long getRegistrations() {
+        return registrations.sum();
+    }
+
+    public long getFailedRegistrations() {
+        return failedRegistrations.sum();
+    }
+
+    public long getSequenceResets() {
+        return sequenceResets.sum();
+    }
+
+    public long getLogins() {
+        return logins.sum();
+    }
+
+    public long getRoleGrants() {
+        return roleGrants.sum();
+    }
+
+    public long getDuplicatesFlagged() {
+        return duplicatesFlagged.sum();
+    }
+
+    public long getDuplicatesRejected() {
+        return duplicatesRejected.sum();
+    }
+
+    public LatencyHistogram getRegistrationLatency() {
+        return registrationLatency;
+    }
+
+    public LatencyHistogram getEnhancementLatency() {
+        return enhancementLatency;
+    }
+
+    public LatencyHistogram getLoginLatency() {
+        return loginLatency;
+    }
+
+    public LatencyHistogram getPhaseLatency(Phase phase) {
+        return phaseLatencies.get(phase);
+    }
+
+    public void reset() {
+        registrations.reset();
+        failedRegistrations.reset();
+        sequenceResets.reset();
+        logins.reset();
+        roleGrants.reset();
+        duplicatesFlagged.reset();
+        duplicatesRejected.reset();
+        registrationLatency.reset();
+        enhancementLatency.reset();
+        loginLatency.reset();
+        for (LatencyHistogram phaseLatency : phaseLatencies.values()) {
+            phaseLatency.reset();
+        }
+    }
+}
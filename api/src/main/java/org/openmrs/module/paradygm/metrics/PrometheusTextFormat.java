@@ -0,0 +1,119 @@
+package org.openmrs.module.paradygm.metrics;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Locale;
+
+import org.openmrs.module.paradygm.metrics.ParadygmMetrics.Phase;
+
+/**
+ * Writes {@link ParadygmMetrics} in the Prometheus text exposition format (version 0.0.4). Durations are exported
+ * in seconds.
+ */
+public class PrometheusTextFormat {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final long[] UPPER_BOUNDS = LatencyHistogram.getUpperBounds();
+
+    private static final String[] UPPER_BOUND_LABELS = upperBoundLabels();
+
+    private final ParadygmMetrics metrics;
+
+    public PrometheusTextFormat() {
+        this(ParadygmMetrics.getInstance());
+    }
+
+    public PrometheusTextFormat(ParadygmMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void write(Appendable out) throws IOException {
+        counter(out, "paradygm_registrations_total", "New patients saved through PatientService.savePatient.",
+                metrics.getRegistrations());
+        counter(out, "paradygm_registration_failures_total", "New patients whose savePatient call failed.",
+                metrics.getFailedRegistrations());
+        histogram(out, "paradygm_registration_duration_seconds",
+                "Duration of savePatient calls for new patients, including identifier enhancement.",
+                metrics.getRegistrationLatency());
+        counter(out, "paradygm_duplicates_flagged_total", "New patients saved although they look like duplicates.",
+                metrics.getDuplicatesFlagged());
+        counter(out, "paradygm_duplicates_rejected_total", "New patients rejected as likely duplicates.",
+                metrics.getDuplicatesRejected());
+        histogram(out, "paradygm_identifier_enhancement_duration_seconds",
+                "Duration of IdentifierEnhancementFactory.enhanceIdentifier.", metrics.getEnhancementLatency());
+        counter(out, "paradygm_sequence_resets_total", "idgen sequence resets after a year change.",
+                metrics.getSequenceResets());
+        counter(out, "paradygm_logins_total", "Logins handled by the Paradygm user listener.", metrics.getLogins());
+        histogram(out, "paradygm_login_listener_duration_seconds",
+                "Time the Paradygm user listener added to a login.", metrics.getLoginLatency());
+        counter(out, "paradygm_role_grants_total", "Role grants queued for Paradygm EMR users.", metrics.getRoleGrants());
+        phases(out);
+    }
+
+    private void phases(Appendable out) throws IOException {
+        String name = "paradygm_identifier_phase_duration_seconds";
+        header(out, name, "Duration of the phases of Paradygm ID generation.", "histogram");
+        for (Phase phase : Phase.values()) {
+            histogramSamples(out, name, "phase=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"",
+                    metrics.getPhaseLatency(phase));
+        }
+        String maxName = "paradygm_identifier_phase_max_duration_seconds";
+        header(out, maxName, "Longest duration of each phase of Paradygm ID generation.", "gauge");
+        for (Phase phase : Phase.values()) {
+            sample(out, maxName + "{phase=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"}",
+                    seconds(metrics.getPhaseLatency(phase).getMaxNanos()));
+        }
+    }
+
+    private void counter(Appendable out, String name, String help, long value) throws IOException {
+        header(out, name, help, "counter");
+        sample(out, name, Long.toString(value));
+    }
+
+    private void histogram(Appendable out, String name, String help, LatencyHistogram histogram) throws IOException {
+        header(out, name, help, "histogram");
+        histogramSamples(out, name, null, histogram);
+    }
+
+    /**
+     * Writes the samples of one histogram, with the given labels in addition to the bucket bound if not null.
+     */
+    private void histogramSamples(Appendable out, String name, String labels, LatencyHistogram histogram)
+            throws IOException {
+        String bucketLabels = labels == null ? "{le=\"" : "{" + labels + ",le=\"";
+        String totalLabels = labels == null ? "" : "{" + labels + "}";
+        long[] counts = histogram.getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < UPPER_BOUNDS.length; i++) {
+            cumulative += counts[i];
+            sample(out, name + "_bucket" + bucketLabels + UPPER_BOUND_LABELS[i] + "\"}", Long.toString(cumulative));
+        }
+        cumulative += counts[UPPER_BOUNDS.length];
+        sample(out, name + "_bucket" + bucketLabels + "+Inf\"}", Long.toString(cumulative));
+        // the buckets are read one by one while other threads record, so count is taken from them
+        sample(out, name + "_count" + totalLabels, Long.toString(cumulative));
+        sample(out, name + "_sum" + totalLabels, seconds(histogram.getTotalNanos()));
+    }
+
+    private void header(Appendable out, String name, String help, String type) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void sample(Appendable out, String name, String value) throws IOException {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    private static String[] upperBoundLabels() {
+        String[] labels = new String[UPPER_BOUNDS.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = seconds(UPPER_BOUNDS[i]);
+        }
+        return labels;
+    }
+}
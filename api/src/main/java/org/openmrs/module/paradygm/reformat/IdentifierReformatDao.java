@@ -0,0 +1,82 @@
+package org.openmrs.module.paradygm.reformat;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.openmrs.PatientIdentifier;
+import org.openmrs.User;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Reads and rewrites Paradygm patient identifiers for the {@link IdentifierReformatter} without loading patients,
+ * so rewriting does not go through {@code PatientService.savePatient} and its identifier enhancement. Identifiers
+ * are rewritten on their loaded entities rather than by a bulk update, so Hibernate Search indexes the new value
+ * and core patient search finds it.
+ */
+@Repository("paradygm.identifierReformatDao")
+public class IdentifierReformatDao {
+
+    @Autowired
+    private DbSessionFactory sessionFactory;
+
+    /**
+     * Returns up to {@code maxResults} active identifiers of non-voided patients of the given types with an id
+     * greater than {@code afterIdentifierId}, ordered by id, each as {@code [patientIdentifierId, patientId,
+     * identifierTypeUuid, identifier, dateCreated]}.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getIdentifiers(Collection<String> identifierTypeUuids, int afterIdentifierId, int maxResults) {
+        return sessionFactory.getCurrentSession()
+                .createQuery("select pi.patientIdentifierId, pi.patient.patientId, pi.identifierType.uuid, pi.identifier,"
+                        + " pi.dateCreated"
+                        + " from PatientIdentifier pi"
+                        + " where pi.patientIdentifierId > :after and pi.voided = false and pi.patient.voided = false"
+                        + " and pi.identifierType.uuid in (:identifierTypes)"
+                        + " order by pi.patientIdentifierId")
+                .setParameter("after", afterIdentifierId)
+                .setParameterList("identifierTypes", identifierTypeUuids)
+                .setMaxResults(maxResults)
+                .list();
+    }
+
+    /**
+     * @return true if any identifier of the given type, voided ones included, is {@code identifier}
+     */
+    public boolean isIssued(String identifierTypeUuid, String identifier) {
+        Number count = (Number) sessionFactory.getCurrentSession()
+                .createQuery("select count(pi) from PatientIdentifier pi"
+                        + " where pi.identifierType.uuid = :identifierType and pi.identifier = :identifier")
+                .setParameter("identifierType", identifierTypeUuid)
+                .setParameter("identifier", identifier)
+                .uniqueResult();
+        return count.longValue() > 0;
+    }
+
+    /**
+     * Rewrites an identifier if it still has its old value. The change is written when the transaction commits.
+     *
+     * @return true if the identifier was rewritten
+     */
+    public boolean updateIdentifier(int patientIdentifierId, String oldIdentifier, String newIdentifier, User changedBy) {
+        PatientIdentifier patientIdentifier = (PatientIdentifier) sessionFactory.getCurrentSession()
+                .get(PatientIdentifier.class, patientIdentifierId);
+        if (patientIdentifier == null || !oldIdentifier.equals(patientIdentifier.getIdentifier())) {
+            return false;
+        }
+        patientIdentifier.setIdentifier(newIdentifier);
+        patientIdentifier.setChangedBy(changedBy);
+        patientIdentifier.setDateChanged(new Date());
+        return true;
+    }
+
+    void setSessionFactory(DbSessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    public void clearSession() {
+        sessionFactory.getCurrentSession().clear();
+    }
+}
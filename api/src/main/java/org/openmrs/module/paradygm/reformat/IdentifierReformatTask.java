@@ -0,0 +1,79 @@
+package org.openmrs.module.paradygm.reformat;
+
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierEnhancementRegistry;
+import org.openmrs.scheduler.tasks.AbstractTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Scheduled task running the {@link IdentifierReformatter}. The page size and rate are read from the
+ * {@value #PROPERTY_BATCH_SIZE} and {@value #PROPERTY_MAX_PER_SECOND} properties of the task definition. Every
+ * run continues after the identifier the previous one got to, so later runs only look at new identifiers.
+ */
+public class IdentifierReformatTask extends AbstractTask {
+
+    public static final String TASK_NAME = "Paradygm ID Reformat";
+
+    public static final String PROPERTY_BATCH_SIZE = "batchSize";
+
+    public static final String PROPERTY_MAX_PER_SECOND = "maxPerSecond";
+
+    private static final Logger log = LoggerFactory.getLogger(IdentifierReformatTask.class);
+
+    private volatile IdentifierReformatter reformatter;
+
+    @Override
+    public void execute() {
+        if (isExecuting) {
+            log.debug("Paradygm ID reformatting is still running, skipping this run");
+            return;
+        }
+        startExecuting();
+        try {
+            Map<String, String> prefixes = IdentifierEnhancementRegistry.getInstance()
+                    .getPrefixesByIdentifierType(Context.getService(IdentifierSourceService.class));
+            IdentifierReformatter runner = new IdentifierReformatter(
+                    Context.getRegisteredComponent("paradygm.identifierReformatDao", IdentifierReformatDao.class),
+                    Context.getAdministrationService(),
+                    Context.getRegisteredComponent("transactionManager", PlatformTransactionManager.class), prefixes,
+                    Context.getAuthenticatedUser());
+            runner.setBatchSize(getIntProperty(PROPERTY_BATCH_SIZE, IdentifierReformatter.DEFAULT_BATCH_SIZE));
+            runner.setMaxPerSecond(getIntProperty(PROPERTY_MAX_PER_SECOND, IdentifierReformatter.DEFAULT_MAX_PER_SECOND));
+            reformatter = runner;
+            runner.run();
+        } catch (Exception e) {
+            log.error("Paradygm ID reformatting failed, the next run continues after the last committed page", e);
+        } finally {
+            reformatter = null;
+            stopExecuting();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        IdentifierReformatter runner = reformatter;
+        if (runner != null) {
+            runner.stop();
+        }
+        super.shutdown();
+    }
+
+    private int getIntProperty(String name, int defaultValue) {
+        String value = getTaskDefinition() != null ? getTaskDefinition().getProperty(name) : null;
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' of task property {}", value, name);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.openmrs.module.paradygm.reformat;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.User;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.module.paradygm.ParadygmIdFormatter;
+import org.openmrs.module.paradygm.lookup.IdentifierLookupIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Rewrites identifiers that were never enhanced, e.g. of patients created before this module or while their
+ * identifier source was missing, into the Paradygm ID format.
+ *
+ * Identifiers of the enhanced types are read in keyset pages and every page is rewritten and committed in its own
+ * transaction, together with the id of its last identifier in the {@value #GP_LAST_IDENTIFIER_ID} global
+ * property, so a stopped run continues after the last committed page. An identifier is issued in the year it was
+ * created in and keeps its sequence; one whose Paradygm ID is already taken is left as it is. Reading is limited
+ * to a number of identifiers per second, so a run does not compete with registrations during clinic hours.
+ */
+public class IdentifierReformatter {
+
+    public static final String GP_LAST_IDENTIFIER_ID = "paradygm.identifier.reformat.lastIdentifierId";
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_MAX_PER_SECOND = 200;
+
+    private static final Logger log = LoggerFactory.getLogger(IdentifierReformatter.class);
+
+    private final ParadygmIdFormatter formatter = ParadygmIdFormatter.getInstance();
+
+    private final IdentifierReformatDao dao;
+
+    private final AdministrationService administrationService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Map<String, String> prefixesByIdentifierType;
+
+    private final User changedBy;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int maxPerSecond = DEFAULT_MAX_PER_SECOND;
+
+    private volatile boolean stopped;
+
+    private long examined;
+
+    private long rewritten;
+
+    private long conflicts;
+
+    /**
+     * @param prefixesByIdentifierType the prefix of each identifier type to reformat
+     * @param changedBy the user recorded as having changed the identifiers
+     */
+    public IdentifierReformatter(IdentifierReformatDao dao, AdministrationService administrationService,
+                                 PlatformTransactionManager transactionManager,
+                                 Map<String, String> prefixesByIdentifierType, User changedBy) {
+        this.dao = dao;
+        this.administrationService = administrationService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.prefixesByIdentifierType = prefixesByIdentifierType;
+        this.changedBy = changedBy;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than zero");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param maxPerSecond the number of identifiers read per second at most, 0 for no limit
+     */
+    public void setMaxPerSecond(int maxPerSecond) {
+        this.maxPerSecond = Math.max(0, maxPerSecond);
+    }
+
+    /**
+     * Reformats identifiers from the restart point on until all are done or {@link #stop()} is called.
+     */
+    public void run() {
+        if (prefixesByIdentifierType.isEmpty()) {
+            log.warn("No Paradygm identifier source is available, not reformatting identifiers");
+            return;
+        }
+        long start = System.nanoTime();
+        int lastIdentifierId = getRestartPoint();
+        log.info("Reformatting Paradygm identifiers after identifier {}", lastIdentifierId);
+        Batch batch;
+        do {
+            final int after = lastIdentifierId;
+            batch = transactionTemplate.execute(status -> reformatBatch(after));
+            lastIdentifierId = batch.lastIdentifierId;
+            examined += batch.size;
+            rewritten += batch.rewritten.size();
+            conflicts += batch.conflicts;
+            for (Reformatted reformatted : batch.rewritten) {
+                IdentifierLookupIndex.getInstance().add(reformatted.patientId, reformatted.prefix, reformatted.identifier);
+            }
+            dao.clearSession();
+            throttle(start);
+        } while (batch.size == batchSize && !stopped);
+        log.info("{} Paradygm identifier reformatting after identifier {}: {} read, {} rewritten, {} left because their"
+                        + " Paradygm ID is taken, in {} ms", stopped ? "Stopped" : "Finished", lastIdentifierId, examined,
+                rewritten, conflicts, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Makes {@link #run()} return after the page it is working on.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public long getExamined() {
+        return examined;
+    }
+
+    public long getRewritten() {
+        return rewritten;
+    }
+
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return the identifier in the Paradygm format, null if it is in that format already or carries no sequence
+     */
+    String reformat(String identifier, String prefix, Date dateCreated) {
+        if (dateCreated == null || formatter.parseFormatted(identifier, prefix) != null) {
+            return null;
+        }
+        long sequence;
+        try {
+            sequence = formatter.parseSequence(identifier, prefix);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (sequence > formatter.getMaxSequence()) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(dateCreated);
+        return formatter.format(prefix, calendar.get(Calendar.YEAR) % 100, sequence);
+    }
+
+    private Batch reformatBatch(int afterIdentifierId) {
+        List<Object[]> rows = dao.getIdentifiers(prefixesByIdentifierType.keySet(), afterIdentifierId, batchSize);
+        Batch batch = new Batch(afterIdentifierId, rows.size());
+        for (Object[] row : rows) {
+            int patientIdentifierId = (Integer) row[0];
+            String identifierTypeUuid = (String) row[2];
+            String identifier = (String) row[3];
+            String prefix = prefixesByIdentifierType.get(identifierTypeUuid);
+            batch.lastIdentifierId = patientIdentifierId;
+
+            String reformatted = reformat(identifier, prefix, (Date) row[4]);
+            if (reformatted == null) {
+                continue;
+            }
+            if (dao.isIssued(identifierTypeUuid, reformatted)) {
+                log.warn("Not reformatting identifier {} ({}), {} is already issued", identifier, patientIdentifierId,
+                        reformatted);
+                batch.conflicts++;
+            } else if (dao.updateIdentifier(patientIdentifierId, identifier, reformatted, changedBy)) {
+                batch.rewritten.add(new Reformatted((Integer) row[1], prefix, reformatted));
+            }
+        }
+        if (!rows.isEmpty()) {
+            administrationService.setGlobalProperty(GP_LAST_IDENTIFIER_ID, String.valueOf(batch.lastIdentifierId));
+        }
+        return batch;
+    }
+
+    private int getRestartPoint() {
+        String value = administrationService.getGlobalProperty(GP_LAST_IDENTIFIER_ID);
+        if (StringUtils.isBlank(value)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid value '{}' of {}, starting from the first identifier", value, GP_LAST_IDENTIFIER_ID);
+            return 0;
+        }
+    }
+
+    private void throttle(long startNanos) {
+        if (maxPerSecond == 0 || stopped) {
+            return;
+        }
+        long wait = startNanos + examined * TimeUnit.SECONDS.toNanos(1) / maxPerSecond - System.nanoTime();
+        if (wait <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+        }
+    }
+
+    /**
+     * The outcome of one page, applied to the counts and the lookup index once it is committed.
+     */
+    private static final class Batch {
+
+        private final int size;
+
+        private final List<Reformatted> rewritten = new ArrayList<>();
+
+        private int lastIdentifierId;
+
+        private int conflicts;
+
+        Batch(int afterIdentifierId, int size) {
+            this.lastIdentifierId = afterIdentifierId;
+            this.size = size;
+        }
+    }
+
+    private static final class Reformatted {
+
+        private final int patientId;
+
+        private final String prefix;
+
+        private final String identifier;
+
+        Reformatted(int patientId, String prefix, String identifier) {
+            this.patientId = patientId;
+            this.prefix = prefix;
+            this.identifier = identifier;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.openmrs.module.paradygm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IdentifierBlockAllocatorTest {
+
+    private static final String PREFIX = "PDG200-";
+
+    private IdentifierBlockAllocator allocator;
+
+    private IdentifierSourceService identifierSourceService;
+
+    private SequentialIdentifierGenerator generator;
+
+    @Before
+    public void setUp() {
+        allocator = new IdentifierBlockAllocator();
+        allocator.setBlockSize(3);
+        allocator.setTransactionManager(mock(PlatformTransactionManager.class));
+        identifierSourceService = mock(IdentifierSourceService.class);
+        generator = new SequentialIdentifierGenerator();
+        generator.setPrefix(PREFIX);
+        when(identifierSourceService.generateIdentifiers(eq(generator), eq(3), anyString()))
+                .thenReturn(Arrays.asList("PDG200-10", "PDG200-11", "PDG200-12"))
+                .thenReturn(Arrays.asList("PDG200-20", "PDG200-21", "PDG200-22"));
+    }
+
+    @After
+    public void tearDown() {
+        allocator.discard(generator.getUuid());
+    }
+
+    @Test
+    public void shouldHandOutReservedValuesAndReserveNextBlockWhenExhausted() {
+        assertEquals(10, allocator.next(identifierSourceService, generator, PREFIX));
+        assertEquals(11, allocator.next(identifierSourceService, generator, PREFIX));
+        assertEquals(12, allocator.next(identifierSourceService, generator, PREFIX));
+        assertEquals(20, allocator.next(identifierSourceService, generator, PREFIX));
+
+        verify(identifierSourceService, times(2)).generateIdentifiers(eq(generator), eq(3), anyString());
+    }
+
+    @Test
+    public void shouldReturnUnusedValuesOnReleaseWhenSequenceWasNotAdvanced() {
+        allocator.next(identifierSourceService, generator, PREFIX);
+        when(identifierSourceService.getSequenceValue(generator)).thenReturn(13L);
+
+        allocator.release(identifierSourceService);
+
+        verify(identifierSourceService).saveSequenceValue(generator, 11L);
+    }
+
+    @Test
+    public void shouldOnlyLogGapOnReleaseWhenSequenceWasAdvancedElsewhere() {
+        allocator.next(identifierSourceService, generator, PREFIX);
+        when(identifierSourceService.getSequenceValue(generator)).thenReturn(40L);
+
+        allocator.release(identifierSourceService);
+
+        verify(identifierSourceService, never()).saveSequenceValue(eq(generator), anyLong());
+    }
+
+    @Test
+    public void shouldNotHoldUpOtherSourcesWhileReservingABlock() throws Exception {
+        SequentialIdentifierGenerator slowGenerator = new SequentialIdentifierGenerator();
+        slowGenerator.setPrefix(PREFIX);
+        CountDownLatch reserving = new CountDownLatch(1);
+        CountDownLatch idgenAnswers = new CountDownLatch(1);
+        when(identifierSourceService.generateIdentifiers(eq(slowGenerator), eq(3), anyString())).thenAnswer(invocation -> {
+            reserving.countDown();
+            idgenAnswers.await(10, TimeUnit.SECONDS);
+            return Arrays.asList("PDG200-30", "PDG200-31", "PDG200-32");
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> slow = executor.submit(() -> allocator.next(identifierSourceService, slowGenerator, PREFIX));
+            assertTrue(reserving.await(10, TimeUnit.SECONDS));
+
+            assertEquals(10, allocator.next(identifierSourceService, generator, PREFIX));
+            assertFalse(slow.isDone());
+
+            idgenAnswers.countDown();
+            assertEquals(30, slow.get(10, TimeUnit.SECONDS).longValue());
+        } finally {
+            idgenAnswers.countDown();
+            executor.shutdownNow();
+            allocator.discard(slowGenerator.getUuid());
+        }
+    }
+
+    @Test
+    public void shouldNotIssueValuesTwiceWhenTheRegistrationThatReservedThemRollsBack() {
+        FakeIdgen idgen = new FakeIdgen(10);
+        allocator.setTransactionManager(idgen);
+        when(identifierSourceService.generateIdentifiers(eq(generator), anyInt(), anyString()))
+                .thenAnswer(invocation -> idgen.generate(invocation.getArgument(1)));
+
+        TransactionStatus registration = idgen.getTransaction(new DefaultTransactionDefinition());
+        Set<Long> issued = new HashSet<>();
+        issued.add(allocator.next(identifierSourceService, generator, PREFIX));
+        idgen.rollback(registration);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(issued.add(allocator.next(identifierSourceService, generator, PREFIX)));
+        }
+        // idgen itself carries on after the reserved blocks
+        assertTrue(issued.add(Long.parseLong(idgen.generate(1).get(0).substring(PREFIX.length()))));
+    }
+
+    @Test
+    public void shouldLoadBlockSizeFromGlobalProperty() {
+        allocator.load(" 50 ");
+        assertEquals(50, allocator.getBlockSize());
+
+        allocator.load("many");
+        assertFalse(allocator.isEnabled());
+
+        allocator.load("5");
+        allocator.globalPropertyDeleted(IdentifierBlockAllocator.GP_BLOCK_SIZE);
+        assertFalse(allocator.isEnabled());
+    }
+
+    /**
+     * An idgen sequence stored like in the database: a transaction advances its own copy, which only becomes
+     * the sequence when the transaction commits.
+     */
+    private static class FakeIdgen implements PlatformTransactionManager {
+
+        private long committed;
+
+        private final Deque<long[]> transactions = new ArrayDeque<>();
+
+        FakeIdgen(long committed) {
+            this.committed = committed;
+        }
+
+        List<String> generate(int count) {
+            long[] sequence = transactions.isEmpty() ? new long[] { committed } : transactions.peek();
+            List<String> identifiers = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                identifiers.add(PREFIX + sequence[0]++);
+            }
+            if (transactions.isEmpty()) {
+                committed = sequence[0];
+            }
+            return identifiers;
+        }
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            if (!transactions.isEmpty()
+                    && definition.getPropagationBehavior() != TransactionDefinition.PROPAGATION_REQUIRES_NEW) {
+                return new SimpleTransactionStatus(false);
+            }
+            transactions.push(new long[] { committed });
+            return new SimpleTransactionStatus(true);
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            if (status.isNewTransaction()) {
+                committed = transactions.pop()[0];
+            }
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            if (status.isNewTransaction()) {
+                transactions.pop();
+            }
+        }
+    }
+}
@@ -14,16 +14,21 @@ import org.openmrs.PersonAttributeType;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.idgen.service.IdentifierSourceService;
 import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.paradygm.metrics.ParadygmMetrics;
+import org.openmrs.module.paradygm.metrics.ParadygmMetrics.Phase;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.time.Year;
+import java.util.Collections;
 import java.util.HashSet;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
@@ -42,6 +47,8 @@ public class IdentifierEnhancementFactoryTest {
     @Before
     public void setUp() {
         identifierEnhancementFactory = new IdentifierEnhancementFactory();
+        IdentifierSourceCache.getInstance().invalidateAll();
+        IdentifierEnhancementRegistry.getInstance().invalidate();
         PowerMockito.mockStatic(Context.class);
         when(Context.getService(IdentifierSourceService.class)).thenReturn(identifierSourceService);
     }
@@ -68,11 +75,85 @@ public class IdentifierEnhancementFactoryTest {
         SequentialIdentifierGenerator sequentialIdentifierGenerator = setUpIdentifierSource();
         when(identifierSourceService.getIdentifierSourceByUuid(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID)).thenReturn(sequentialIdentifierGenerator);
 
-        identifierEnhancementFactory.enhanceIdentifier(patient);
+        assertEquals(Collections.singletonList(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID),
+                identifierEnhancementFactory.enhanceIdentifier(patient));
         // for year 2024, id will be PDG200-24-000-001
         assertEquals("PDG200-" + getCurrentYear() + "-000-001", patient.getPatientIdentifier().getIdentifier());
     }
 
+    @Test
+    public void shouldResetParadygmIDSequenceOnlyOncePerYear() {
+        setLastRecordedYear(getCurrentYear() + 1);
+        SequentialIdentifierGenerator sequentialIdentifierGenerator = setUpIdentifierSource();
+        when(identifierSourceService.getIdentifierSourceByUuid(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID)).thenReturn(sequentialIdentifierGenerator);
+
+        assertFalse(identifierEnhancementFactory.enhanceIdentifier(setUpPatientData()).isEmpty());
+        assertTrue(identifierEnhancementFactory.enhanceIdentifier(setUpPatientData()).isEmpty());
+    }
+
+    @Test
+    public void shouldResolveIdentifierSourceOnlyOnceWhileCacheIsWarm() {
+        SequentialIdentifierGenerator sequentialIdentifierGenerator = setUpIdentifierSource();
+        when(identifierSourceService.getIdentifierSourceByUuid(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID)).thenReturn(sequentialIdentifierGenerator);
+
+        identifierEnhancementFactory.enhanceIdentifier(setUpPatientData());
+        identifierEnhancementFactory.enhanceIdentifier(setUpPatientData());
+
+        verify(identifierSourceService, times(1)).getIdentifierSourceByUuid(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID);
+    }
+
+    @Test
+    public void shouldResolveIdentifierSourceAgainAfterInvalidation() {
+        SequentialIdentifierGenerator sequentialIdentifierGenerator = setUpIdentifierSource();
+        when(identifierSourceService.getIdentifierSourceByUuid(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID)).thenReturn(sequentialIdentifierGenerator);
+
+        identifierEnhancementFactory.enhanceIdentifier(setUpPatientData());
+        IdentifierSourceCache.getInstance().invalidate(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID);
+        identifierEnhancementFactory.enhanceIdentifier(setUpPatientData());
+
+        verify(identifierSourceService, times(2)).getIdentifierSourceByUuid(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID);
+    }
+
+    @Test
+    public void shouldEnhanceIdentifiersOfEachFacilitySourceWithItsOwnPrefix() {
+        String facilitySourceUuid = "b1f4c1c6-3f0b-4d8e-9a57-6f1d2f0c9e11";
+        PatientIdentifierType facilityIdentifierType = new PatientIdentifierType();
+        SequentialIdentifierGenerator facilitySource = new SequentialIdentifierGenerator();
+        facilitySource.setPrefix("KLA100-");
+        facilitySource.setIdentifierType(facilityIdentifierType);
+        when(identifierSourceService.getIdentifierSourceByUuid(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID)).thenReturn(setUpIdentifierSource());
+        when(identifierSourceService.getIdentifierSourceByUuid(facilitySourceUuid)).thenReturn(facilitySource);
+
+        IdentifierEnhancementRegistry.getInstance().configure(facilitySourceUuid);
+        try {
+            Patient patient = setUpPatientData();
+            PatientIdentifier identifier = patient.getPatientIdentifier();
+            identifier.setIdentifier("KLA100-42");
+            identifier.setIdentifierType(facilityIdentifierType);
+
+            identifierEnhancementFactory.enhanceIdentifier(patient);
+
+            assertEquals("KLA100-" + getCurrentYear() + "-000-042", identifier.getIdentifier());
+        }
+        finally {
+            IdentifierEnhancementRegistry.getInstance().configure(null);
+        }
+    }
+
+    @Test
+    public void shouldRecordPhaseTimings() {
+        ParadygmMetrics metrics = ParadygmMetrics.getInstance();
+        metrics.reset();
+        SequentialIdentifierGenerator sequentialIdentifierGenerator = setUpIdentifierSource();
+        when(identifierSourceService.getIdentifierSourceByUuid(TEST_PARADYGM_IDENTIFIER_SOURCE_UUID)).thenReturn(sequentialIdentifierGenerator);
+
+        identifierEnhancementFactory.enhanceIdentifier(setUpPatientData());
+
+        assertEquals(1, metrics.getPhaseLatency(Phase.SOURCE_LOOKUP).getCount());
+        assertEquals(1, metrics.getPhaseLatency(Phase.PARSE).getCount());
+        assertEquals(1, metrics.getPhaseLatency(Phase.FORMAT).getCount());
+    }
+
     private Patient setUpPatientData() {
         Patient patient = new Patient();
         patient.setGender("M");
@@ -97,17 +178,7 @@ public class IdentifierEnhancementFactoryTest {
     }
 
     private void setLastRecordedYear(int year) {
-        try {
-            Field field = IdentifierEnhancementFactory.class.getDeclaredField("lastRecordedYear");
-            field.setAccessible(true);
-            if (Modifier.isStatic(field.getModifiers())) {
-                field.set(null, year);
-            } else {
-                throw new IllegalAccessException("Field is not static");
-            }
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
-        }
+        identifierEnhancementFactory.setLastRecordedYearForTesting(year);
     }
 
     private int getCurrentYear() {
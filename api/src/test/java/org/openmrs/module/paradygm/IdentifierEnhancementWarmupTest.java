@@ -0,0 +1,117 @@
+package org.openmrs.module.paradygm;
+
+import java.time.Year;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.lookup.IdentifierLookupDao;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IdentifierEnhancementWarmupTest {
+
+    private static final String PREFIX = "PDG200-";
+
+    private static final String SOURCE_UUID = IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID;
+
+    private IdentifierSourceService identifierSourceService;
+
+    private IdentifierLookupDao identifierLookupDao;
+
+    private PatientIdentifierType identifierType;
+
+    @Before
+    public void setUp() {
+        IdentifierSourceCache.getInstance().invalidateAll();
+        IdentifierEnhancementRegistry.getInstance().configure(null);
+        identifierType = new PatientIdentifierType();
+        SequentialIdentifierGenerator generator = new SequentialIdentifierGenerator();
+        generator.setPrefix(PREFIX);
+        generator.setIdentifierType(identifierType);
+        identifierSourceService = mock(IdentifierSourceService.class);
+        identifierLookupDao = mock(IdentifierLookupDao.class);
+        when(identifierSourceService.getIdentifierSourceByUuid(SOURCE_UUID)).thenReturn(generator);
+        when(identifierSourceService.getSequenceValue(generator)).thenReturn(10L);
+    }
+
+    @After
+    public void tearDown() {
+        rolloverState().setLastRecordedYear(currentYear());
+        IdentifierSourceCache.getInstance().invalidateAll();
+        IdentifierEnhancementRegistry.getInstance().invalidate();
+    }
+
+    @Test
+    public void shouldStartInTheYearOfTheNewestStoredIdAndResetSequenceAfterNewYearRestart() {
+        int lastYear = currentYear() - 1;
+        newestIdentifiers(PREFIX + lastYear + "-000-042");
+
+        assertEquals(1, new IdentifierEnhancementWarmup(identifierSourceService, identifierLookupDao).warm());
+        assertEquals(lastYear, rolloverState().getLastRecordedYear());
+
+        IdentifierEnhancementFactory factory = new IdentifierEnhancementFactory();
+        factory.setIdentifierSourceService(identifierSourceService);
+        Patient patient = new Patient();
+        patient.addIdentifier(new PatientIdentifier(PREFIX + 43, identifierType, new Location()));
+        assertEquals(Collections.singletonList(SOURCE_UUID), factory.enhanceIdentifier(patient));
+        assertEquals(PREFIX + currentYear() + "-000-001", patient.getPatientIdentifier().getIdentifier());
+    }
+
+    @Test
+    public void shouldSkipIdentifiersThatWereNeverEnhanced() {
+        int lastYear = currentYear() - 1;
+        newestIdentifiers(PREFIX + 7, "LEGACY-123", PREFIX + lastYear + "-000-006");
+
+        new IdentifierEnhancementWarmup(identifierSourceService, identifierLookupDao).warm();
+
+        assertEquals(lastYear, rolloverState().getLastRecordedYear());
+    }
+
+    @Test
+    public void shouldKeepCurrentYearWhenNewestStoredIdIsFromTheFuture() {
+        rolloverState().setLastRecordedYear(currentYear());
+        newestIdentifiers(PREFIX + (currentYear() + 1) + "-000-001");
+
+        new IdentifierEnhancementWarmup(identifierSourceService, identifierLookupDao).warm();
+
+        assertEquals(currentYear(), rolloverState().getLastRecordedYear());
+    }
+
+    @Test
+    public void shouldStartInTheYearSharedByAllNodes() {
+        YearEpochStore epochStore = mock(YearEpochStore.class);
+        when(epochStore.initialize(SOURCE_UUID, currentYear())).thenReturn(currentYear() - 1);
+        IdentifierEnhancementRegistry.getInstance().setYearEpochStore(epochStore);
+        try {
+            new IdentifierEnhancementWarmup(identifierSourceService, identifierLookupDao).warm();
+
+            assertEquals(currentYear() - 1, rolloverState().getLastRecordedYear());
+        } finally {
+            IdentifierEnhancementRegistry.getInstance().setYearEpochStore(null);
+        }
+    }
+
+    private void newestIdentifiers(String... identifiers) {
+        when(identifierLookupDao.getNewestIdentifiers(identifierType.getUuid(), IdentifierEnhancementWarmup.NEWEST_IDENTIFIERS))
+                .thenReturn(Arrays.asList(identifiers));
+    }
+
+    private YearRolloverState rolloverState() {
+        return IdentifierEnhancementRegistry.getInstance().getRolloverState(SOURCE_UUID);
+    }
+
+    private int currentYear() {
+        return Year.now().getValue() % 100;
+    }
+}
@@ -0,0 +1,110 @@
+package org.openmrs.module.paradygm;
+
+import org.junit.Test;
+import org.openmrs.module.paradygm.ParadygmIdFormatter.ParsedId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class IdentifierTemplateTest {
+
+    private static final String PREFIX = "PDG200-";
+
+    @Test
+    public void shouldReproduceTheIdsIssuedBeforeTemplates() {
+        IdentifierTemplate template = IdentifierTemplate.DEFAULT;
+        assertEquals("PDG200-25-000-001", format(template, 25, 1));
+        assertEquals("PDG200-5-123-456", format(template, 5, 123456));
+        assertEquals(999999, template.getMaxSequence());
+        assertEquals(new ParsedId(25, 1), template.parse("PDG200-25-000-001", PREFIX));
+        assertEquals(new ParsedId(5, 123456), template.parse("PDG200-5-123-456", PREFIX));
+    }
+
+    @Test
+    public void shouldRejectIdsThatDoNotFollowTheTemplate() {
+        IdentifierTemplate template = IdentifierTemplate.DEFAULT;
+        for (String identifier : new String[] { "PDG200-7", "PDG200-25000001", "PDG200-25-0000-01", "PDG200-25-000-01",
+                "PDG200-25-000-0011", "LEGACY-25-000-001", "PDG200--000-001", "PDG200-25-000-001-" }) {
+            try {
+                template.parse(identifier, PREFIX);
+                fail(identifier + " should not parse");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void shouldFormatWiderSequences() {
+        IdentifierTemplate template = IdentifierTemplate.compile("{prefix}{yy:2}-{seq:8,group3}");
+        assertEquals("PDG200-05-12-345-678", format(template, 5, 12345678));
+        assertEquals("PDG200-25-00-000-001", format(template, 25, 1));
+        assertEquals(99999999, template.getMaxSequence());
+        assertEquals(new ParsedId(5, 12345678), template.parse("PDG200-05-12-345-678", PREFIX));
+    }
+
+    @Test
+    public void shouldFormatUnpaddedSequenceWithFacilityCode() {
+        IdentifierTemplate template = IdentifierTemplate.compile("KLA/{seq,group3}/{yy}");
+        assertEquals("KLA/1-234-567/25", format(template, 25, 1234567));
+        assertEquals("KLA/7/25", format(template, 25, 7));
+        assertEquals(new ParsedId(25, 1234567), template.parse("KLA/1-234-567/25", PREFIX));
+    }
+
+    @Test
+    public void shouldGenerateAndValidateLuhnCheckDigit() {
+        assertEquals("79927398713", format(IdentifierTemplate.compile("{seq:10}{luhn}"), 0, 7992739871L));
+
+        IdentifierTemplate template = IdentifierTemplate.compile("{prefix}{yy}-{seq:6,group3}{luhn}");
+        String identifier = format(template, 25, 1);
+        assertEquals("PDG200-25-000-001" + IdentifierTemplate.luhn("PDG200-25-000-001", 0, 17), identifier);
+        assertEquals(new ParsedId(25, 1), template.parse(identifier, PREFIX));
+
+        String mistyped = "PDG200-25-000-010" + identifier.charAt(identifier.length() - 1);
+        try {
+            template.parse(mistyped, PREFIX);
+            fail("A mistyped sequence should fail the check digit");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void shouldReadYearAndSequenceFromTypedDigitsByFieldWidths() {
+        assertEquals(new ParsedId(25, 1), IdentifierTemplate.DEFAULT.parseDigits("25000001"));
+        assertEquals(new ParsedId(5, 123456), IdentifierTemplate.DEFAULT.parseDigits("5123456"));
+        assertNull(IdentifierTemplate.DEFAULT.parseDigits("123456"));
+
+        IdentifierTemplate template = IdentifierTemplate.compile("{prefix}{yy}-{seq:7,group3}{luhn}");
+        assertEquals(new ParsedId(25, 1234567), template.parseDigits("2512345673"));
+        assertNull(template.parseDigits("251234567"));
+        assertEquals(7, template.getSequenceDigits());
+
+        IdentifierTemplate unpadded = IdentifierTemplate.compile("KLA/{seq,group3}/{yy}");
+        assertEquals(new ParsedId(25, 1234567), unpadded.parseDigits("123456725"));
+        assertEquals(18, unpadded.getSequenceDigits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectSequenceWiderThanItsField() {
+        IdentifierTemplate.compile("{prefix}{yy}-{seq:6,group3}").appendTo(new StringBuilder(), PREFIX, 25, 1000000);
+    }
+
+    @Test
+    public void shouldRejectInvalidTemplates() {
+        for (String template : new String[] { "", "{prefix}{yy}", "{prefix}{seq}{seq}", "{prefix}{yy}{seq:6}",
+                "{prefix}{seq}{luhn}", "{luhn}{seq:6}", "{prefix}{seq:0}", "{prefix}{seq:19}", "{yy,group3}-{seq:6}",
+                "{prefix}{sequence}", "{prefix}{seq:6,group4}", "{prefix}{seq:6", "{prefix}seq}", "{seq,group3}-{yy}" }) {
+            try {
+                IdentifierTemplate.compile(template);
+                fail(template + " should not compile");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private String format(IdentifierTemplate template, int year, long sequence) {
+        StringBuilder buffer = new StringBuilder();
+        template.appendTo(buffer, PREFIX, year, sequence);
+        return buffer.toString();
+    }
+}
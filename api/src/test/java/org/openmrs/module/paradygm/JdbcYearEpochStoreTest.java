@@ -0,0 +1,199 @@
+package org.openmrs.module.paradygm;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import liquibase.Contexts;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.FileSystemResourceAccessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs several nodes, each with its own {@link YearRolloverState} and {@link JdbcYearEpochStore}, against one
+ * in-memory H2 database, the way OpenMRS nodes behind a load balancer share one MySQL database.
+ */
+public class JdbcYearEpochStoreTest {
+
+    private static final String SOURCE_UUID = IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID;
+
+    private static final int LAST_YEAR = 25;
+
+    private static final int CURRENT_YEAR = 26;
+
+    private static final int NODES = 4;
+
+    private static final int THREADS_PER_NODE = 8;
+
+    private String url;
+
+    private Connection keepAlive;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        url = "jdbc:h2:mem:paradygm-" + UUID.randomUUID();
+        keepAlive = DriverManager.getConnection(url);
+        applyChangeLog(keepAlive);
+        executor = Executors.newFixedThreadPool(NODES * THREADS_PER_NODE);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        executor.shutdownNow();
+        keepAlive.close();
+    }
+
+    @Test
+    public void shouldLetExactlyOneNodeResetTheSequenceWhenTheYearChanges() throws Exception {
+        List<YearRolloverState> nodes = startNodes(LAST_YEAR);
+
+        List<Boolean> resets = rolloverConcurrently(nodes, CURRENT_YEAR);
+
+        assertEquals(1, count(resets, true));
+        assertEquals(Integer.valueOf(CURRENT_YEAR), newStore().getYear(SOURCE_UUID));
+        for (YearRolloverState node : nodes) {
+            assertEquals(CURRENT_YEAR, node.getLastRecordedYear());
+            assertFalse(node.rollover(CURRENT_YEAR));
+        }
+    }
+
+    @Test
+    public void shouldLetOnlyOneNodeStoreTheFirstYear() throws Exception {
+        List<YearRolloverState> nodes = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new YearRolloverState(SOURCE_UUID, LAST_YEAR, newStore()));
+        }
+
+        assertEquals(1, count(rolloverConcurrently(nodes, CURRENT_YEAR), true));
+    }
+
+    @Test
+    public void shouldHandTheResetBackWhenTheSaveOfTheWinningNodeFails() throws Exception {
+        List<YearRolloverState> nodes = startNodes(LAST_YEAR);
+        YearRolloverState first = nodes.get(0);
+        YearRolloverState second = nodes.get(1);
+
+        assertTrue(first.rollover(CURRENT_YEAR));
+        assertTrue(first.revertRollover(CURRENT_YEAR));
+        assertEquals(Integer.valueOf(LAST_YEAR), newStore().getYear(SOURCE_UUID));
+
+        assertTrue(second.rollover(CURRENT_YEAR));
+        assertFalse(first.rollover(CURRENT_YEAR));
+    }
+
+    @Test
+    public void shouldNotRevertARolloverOfAnotherNode() {
+        List<YearRolloverState> nodes = startNodes(LAST_YEAR);
+
+        assertTrue(nodes.get(0).rollover(CURRENT_YEAR));
+        assertFalse(nodes.get(1).rollover(CURRENT_YEAR));
+        assertFalse(nodes.get(1).revertRollover(CURRENT_YEAR));
+
+        assertEquals(Integer.valueOf(CURRENT_YEAR), newStore().getYear(SOURCE_UUID));
+    }
+
+    @Test
+    public void shouldStartNodesInTheStoredYear() {
+        JdbcYearEpochStore store = newStore();
+        assertNull(store.getYear(SOURCE_UUID));
+        assertEquals(LAST_YEAR, store.initialize(SOURCE_UUID, LAST_YEAR));
+        assertEquals(LAST_YEAR, store.initialize(SOURCE_UUID, CURRENT_YEAR));
+
+        assertTrue(store.advance(SOURCE_UUID, CURRENT_YEAR));
+        assertEquals(CURRENT_YEAR, newStore().initialize(SOURCE_UUID, LAST_YEAR));
+    }
+
+    /**
+     * Creates the table with the changesets of the module's liquibase.xml, so the store runs against the schema
+     * it gets in production.
+     */
+    private void applyChangeLog(Connection connection) throws Exception {
+        // the module's own classes directory, other modules on the test classpath have a liquibase.xml as well
+        File classes = new File(JdbcYearEpochStore.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+        new Liquibase("liquibase.xml", new FileSystemResourceAccessor(classes), database).update(new Contexts());
+    }
+
+    private List<YearRolloverState> startNodes(int year) {
+        newStore().initialize(SOURCE_UUID, year);
+        List<YearRolloverState> nodes = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            JdbcYearEpochStore store = newStore();
+            nodes.add(new YearRolloverState(SOURCE_UUID, store.getYear(SOURCE_UUID), store));
+        }
+        return nodes;
+    }
+
+    private List<Boolean> rolloverConcurrently(List<YearRolloverState> nodes, int year) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (final YearRolloverState node : nodes) {
+            for (int i = 0; i < THREADS_PER_NODE; i++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        start.await();
+                        return node.rollover(year);
+                    }
+                }));
+            }
+        }
+        start.countDown();
+        List<Boolean> results = new ArrayList<>();
+        for (Future<Boolean> future : futures) {
+            results.add(future.get(30, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+
+    private int count(List<Boolean> values, boolean value) {
+        int count = 0;
+        for (Boolean each : values) {
+            if (each == value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return a store with its own connections, as on a separate node
+     */
+    private JdbcYearEpochStore newStore() {
+        return new JdbcYearEpochStore(new JdbcYearEpochStore.ConnectionSource() {
+
+            @Override
+            public Connection getConnection() throws SQLException {
+                return DriverManager.getConnection(url);
+            }
+
+            @Override
+            public void release(Connection connection) throws SQLException {
+                connection.close();
+            }
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package org.openmrs.module.paradygm;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.openmrs.module.paradygm.ParadygmIdFormatter.ParsedId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ParadygmIdFormatterTest {
+
+    private static final String PREFIX = "PDG200-";
+
+    private final ParadygmIdFormatter formatter = ParadygmIdFormatter.getInstance();
+
+    @Test
+    public void shouldFormatParadygmId() {
+        assertEquals("PDG200-25-000-001", formatter.format(PREFIX, 25, 1));
+        assertEquals("PDG200-25-123-456", formatter.format(PREFIX, 25, 123456));
+        assertEquals("PDG200-5-000-042", formatter.format(PREFIX, 5, 42));
+        assertEquals("1-000-042", formatter.format("", 1, 42));
+    }
+
+    @Test
+    public void shouldMatchLegacyRegexFormatting() {
+        int[] years = { 1, 9, 10, 24, 25, 99 };
+        long[] sequences = { 0, 1, 9, 10, 99, 100, 999, 1000, 12345, 999999 };
+        for (int year : years) {
+            for (long sequence : sequences) {
+                assertEquals(legacyFormat(PREFIX, year, sequence), formatter.format(PREFIX, year, sequence));
+            }
+        }
+    }
+
+    @Test
+    public void shouldParseFormattedIdBackIntoYearAndSequence() {
+        assertEquals(new ParsedId(25, 1), formatter.parse("PDG200-25-000-001", PREFIX));
+        assertEquals(new ParsedId(5, 123456), formatter.parse("PDG200-5-123-456", PREFIX));
+        assertEquals(new ParsedId(25, 123456), formatter.parse(formatter.format(PREFIX, 25, 123456), PREFIX));
+    }
+
+    @Test
+    public void shouldOnlyParseIdentifiersInTheExactParadygmFormat() {
+        assertEquals(new ParsedId(25, 1), formatter.parseFormatted("PDG200-25-000-001", PREFIX));
+        assertNull(formatter.parseFormatted("PDG200-7", PREFIX));
+        assertNull(formatter.parseFormatted("PDG200-25000001", PREFIX));
+        assertNull(formatter.parseFormatted("LEGACY-25-000-001", PREFIX));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectSequenceThatDoesNotFitTheYear() {
+        // used to carry into the year and give PDG200-26-000-000
+        formatter.format(PREFIX, 25, 1000000);
+    }
+
+    @Test
+    public void shouldFormatAndParseWithConfiguredTemplate() {
+        formatter.setTemplate(IdentifierTemplate.compile("{prefix}{yy}-{seq:7,group3}{luhn}"));
+        try {
+            String identifier = formatter.format(PREFIX, 25, 1000000);
+            assertEquals(9999999, formatter.getMaxSequence());
+            assertEquals(new ParsedId(25, 1000000), formatter.parseFormatted(identifier, PREFIX));
+            // issued before the change, the default template is always recognised
+            assertEquals(new ParsedId(25, 1), formatter.parseFormatted("PDG200-25-000-001", PREFIX));
+        } finally {
+            formatter.setTemplate(null);
+        }
+        assertEquals(IdentifierTemplate.DEFAULT, formatter.getTemplate());
+    }
+
+    @Test
+    public void shouldParseIdsIssuedUnderEarlierTemplates() {
+        IdentifierTemplate earlier = IdentifierTemplate.compile("{prefix}{yy}/{seq}");
+        formatter.setTemplate(IdentifierTemplate.compile("{prefix}{yy}-{seq:7,group3}{luhn}"),
+                Collections.singletonList(earlier));
+        try {
+            assertEquals(new ParsedId(24, 17), formatter.parse("PDG200-24/17", PREFIX));
+            assertEquals(new ParsedId(24, 17), formatter.parseFormatted("PDG200-24/17", PREFIX));
+            assertEquals(new ParsedId(23, 5), formatter.parse("PDG200-23-000-005", PREFIX));
+            assertEquals(3, formatter.getTemplates().size());
+
+            formatter.setTemplate(IdentifierTemplate.compile("{prefix}{yy}-{seq:7,group3}{luhn}"));
+            assertNull(formatter.parseFormatted("PDG200-24/17", PREFIX));
+        } finally {
+            formatter.setTemplate(null);
+        }
+    }
+
+    @Test
+    public void shouldParseRawSequenceIssuedByIdgen() {
+        assertEquals(999, formatter.parseSequence("PDG200-999", PREFIX));
+        assertEquals(1, formatter.parseSequence("PDG200-1", PREFIX));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectIdentifierWithoutPrefix() {
+        formatter.parseSequence("ABC-1", PREFIX);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonNumericSequence() {
+        formatter.parseSequence("PDG200-12A", PREFIX);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectHyphensInRawSequence() {
+        formatter.parseSequence("PDG200-25-000-001", PREFIX);
+    }
+
+    private String legacyFormat(String prefix, int year, long sequence) {
+        String bashId = String.valueOf(sequence + (year * 1000000L));
+        return prefix + bashId.replaceAll("(\\d)(?=(\\d{3})+$)", "$1-");
+    }
+}
@@ -0,0 +1,98 @@
+package org.openmrs.module.paradygm;
+
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.User;
+import org.openmrs.UserSessionListener.Event;
+import org.openmrs.UserSessionListener.Status;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ParadygmMetadataUserListenerTest {
+
+    private UserRoleAssignmentWorker roleAssignmentWorker;
+
+    private ParadygmMetadataUserListener listener;
+
+    @Before
+    public void setUp() {
+        roleAssignmentWorker = mock(UserRoleAssignmentWorker.class);
+        listener = new ParadygmMetadataUserListener(roleAssignmentWorker);
+    }
+
+    @Test
+    public void shouldOnlyCheckRolesOnceForAVerifiedUser() {
+        User nurse = mockUser(ParadygmMetadataConstants.NURSE_USERNAME, 7, true);
+
+        listener.loggedInOrOut(nurse, Event.LOGIN, Status.SUCCESS);
+        listener.loggedInOrOut(nurse, Event.LOGIN, Status.SUCCESS);
+
+        verify(nurse, times(1)).hasRole(ParadygmMetadataConstants.NURSE_ROLE_NAME);
+        verify(roleAssignmentWorker, never()).grant(anyInt(), anyCollection());
+    }
+
+    @Test
+    public void shouldCheckRolesAgainOnceTheUserChanged() {
+        User nurse = mockUser(ParadygmMetadataConstants.NURSE_USERNAME, 7, true);
+        listener.loggedInOrOut(nurse, Event.LOGIN, Status.SUCCESS);
+
+        when(nurse.getDateChanged()).thenReturn(new Date(2000));
+        listener.loggedInOrOut(nurse, Event.LOGIN, Status.SUCCESS);
+
+        verify(nurse, times(2)).hasRole(ParadygmMetadataConstants.NURSE_ROLE_NAME);
+    }
+
+    @Test
+    public void shouldQueueMissingRoleInsteadOfSavingOnTheLoginThread() {
+        User doctor = mockUser(ParadygmMetadataConstants.DOCTOR_USERNAME, 8, false);
+
+        listener.loggedInOrOut(doctor, Event.LOGIN, Status.SUCCESS);
+
+        verify(roleAssignmentWorker).grant(8, Collections.singleton(ParadygmMetadataConstants.DOCTOR_ROLE_NAME));
+    }
+
+    @Test
+    public void shouldCheckRolesAgainAfterTheMappingWasReloaded() {
+        User nurse = mockUser(ParadygmMetadataConstants.NURSE_USERNAME, 7, true);
+        listener.loggedInOrOut(nurse, Event.LOGIN, Status.SUCCESS);
+
+        UserRoleMappingLoader.getInstance().load("NURSE=Nurse,Triage");
+        try {
+            listener.loggedInOrOut(nurse, Event.LOGIN, Status.SUCCESS);
+        }
+        finally {
+            UserRoleMappingLoader.getInstance().load(null);
+        }
+
+        verify(nurse).hasRole("Triage");
+    }
+
+    @Test
+    public void shouldIgnoreNonParadygmUsers() {
+        User other = mockUser("someone", 9, false);
+
+        listener.loggedInOrOut(other, Event.LOGIN, Status.SUCCESS);
+
+        verify(other, never()).hasRole(anyString());
+        verify(roleAssignmentWorker, never()).grant(anyInt(), anyCollection());
+    }
+
+    private User mockUser(String username, int userId, boolean hasRole) {
+        User user = mock(User.class);
+        when(user.getUsername()).thenReturn(username);
+        when(user.getUserId()).thenReturn(userId);
+        when(user.getDateChanged()).thenReturn(new Date(1000));
+        when(user.hasRole(anyString())).thenReturn(hasRole);
+        return user;
+    }
+}
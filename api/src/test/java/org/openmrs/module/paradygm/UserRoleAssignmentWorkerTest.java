@@ -0,0 +1,71 @@
+package org.openmrs.module.paradygm;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.api.UserService;
+import org.openmrs.api.context.Context;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+@PowerMockIgnore({"javax.management.*", "jdk.internal.reflect.*"})
+public class UserRoleAssignmentWorkerTest {
+
+    @Mock
+    private UserService userService;
+
+    private UserRoleAssignmentWorker worker;
+
+    @Before
+    public void setUp() {
+        worker = new UserRoleAssignmentWorker();
+        PowerMockito.mockStatic(Context.class);
+        when(Context.getUserService()).thenReturn(userService);
+    }
+
+    @Test
+    public void shouldLoadRolesByNameInEveryGrantInsteadOfReusingEntities() {
+        Role firstSession = role();
+        Role secondSession = role();
+        when(userService.getRole(ParadygmMetadataConstants.NURSE_ROLE_NAME)).thenReturn(firstSession, secondSession);
+        User first = user(1);
+        User second = user(2);
+
+        worker.grant(1, Collections.singleton(ParadygmMetadataConstants.NURSE_ROLE_NAME));
+        worker.grant(2, Collections.singleton(ParadygmMetadataConstants.NURSE_ROLE_NAME));
+        worker.shutdown();
+
+        verify(first).addRole(firstSession);
+        verify(second).addRole(secondSession);
+        verify(userService, times(2)).getRole(ParadygmMetadataConstants.NURSE_ROLE_NAME);
+        verify(userService, never()).getRoleByUuid(anyString());
+        verify(userService, times(2)).saveUser(any(User.class));
+    }
+
+    private Role role() {
+        return new Role(ParadygmMetadataConstants.NURSE_ROLE_NAME);
+    }
+
+    private User user(int userId) {
+        User user = mock(User.class);
+        when(userService.getUser(userId)).thenReturn(user);
+        return user;
+    }
+}
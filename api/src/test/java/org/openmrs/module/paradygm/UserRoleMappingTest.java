@@ -0,0 +1,50 @@
+package org.openmrs.module.paradygm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UserRoleMappingTest {
+
+    @Test
+    public void shouldDefaultToTheBuiltInUserRoles() {
+        UserRoleMapping mapping = UserRoleMapping.defaults();
+
+        assertEquals(Collections.singleton(ParadygmMetadataConstants.NURSE_ROLE_NAME),
+                mapping.getRoles(ParadygmMetadataConstants.NURSE_USERNAME));
+        assertEquals(Collections.singleton(ParadygmMetadataConstants.REGISTRATION_OFFICER_ROLE_NAME),
+                mapping.getRoles(ParadygmMetadataConstants.REGISTRATION_OFFICER_USERNAME));
+        assertTrue(mapping.getRoles("NURSE_1").isEmpty());
+    }
+
+    @Test
+    public void shouldMatchExactUsernamesAndPrefixes() {
+        UserRoleMapping mapping = UserRoleMapping.parse("NURSE_*=Nurse, Triage;\nNURSE_HEAD=Manager\nDOCTOR=Doctor");
+
+        assertEquals(new HashSet<>(Arrays.asList("Nurse", "Triage")), mapping.getRoles("NURSE_12"));
+        assertEquals(new HashSet<>(Arrays.asList("Nurse", "Triage", "Manager")), mapping.getRoles("NURSE_HEAD"));
+        assertEquals(Collections.singleton("Doctor"), mapping.getRoles("DOCTOR"));
+        assertTrue(mapping.getRoles("NURSE").isEmpty());
+        assertTrue(mapping.getRoles("DOCTOR_2").isEmpty());
+        assertTrue(mapping.getRoles(null).isEmpty());
+    }
+
+    @Test
+    public void shouldCombineNestedPrefixes() {
+        UserRoleMapping mapping = UserRoleMapping.parse("*=Provider;CL*=Clinician;CLINIC_ADMIN=System Developer");
+
+        assertEquals(new HashSet<>(Arrays.asList("Provider", "Clinician", "System Developer")),
+                mapping.getRoles("CLINIC_ADMIN"));
+        assertEquals(Collections.singleton("Provider"), mapping.getRoles("admin"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectEntriesWithoutRoles() {
+        UserRoleMapping.parse("NURSE_*=");
+    }
+}
@@ -0,0 +1,132 @@
+package org.openmrs.module.paradygm.advice;
+
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierEnhancementFactory;
+import org.openmrs.module.paradygm.IdentifierSourceCache;
+import org.springframework.aop.framework.ProxyFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs hundreds of concurrent savePatient calls through the advised PatientService across a year change and
+ * checks that the identifier sequence is reset exactly once.
+ */
+public class BeforeSaveAdviceConcurrencyTest {
+
+    private static final String PREFIX = "PDG200-";
+
+    private static final int THREADS = 64;
+
+    private static final int REGISTRATIONS = 500;
+
+    private IdentifierSourceService identifierSourceService;
+
+    private IdentifierEnhancementFactory identifierEnhancementFactory;
+
+    private PatientService patientService;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        IdentifierSourceCache.getInstance().invalidateAll();
+        SequentialIdentifierGenerator generator = new SequentialIdentifierGenerator();
+        generator.setPrefix(PREFIX);
+        identifierSourceService = mock(IdentifierSourceService.class);
+        when(identifierSourceService.getIdentifierSourceByUuid(IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID))
+                .thenReturn(generator);
+
+        identifierEnhancementFactory = new IdentifierEnhancementFactory();
+        identifierEnhancementFactory.setIdentifierSourceService(identifierSourceService);
+        PatientService target = mock(PatientService.class);
+        when(target.savePatient(any(Patient.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        ProxyFactory proxyFactory = new ProxyFactory();
+        proxyFactory.setTarget(target);
+        proxyFactory.addInterface(PatientService.class);
+        proxyFactory.addAdvisor(new PatientSaveAdvisor(new BeforeSaveAdvice(identifierEnhancementFactory)));
+        patientService = (PatientService) proxyFactory.getProxy();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        identifierEnhancementFactory.setLastRecordedYearForTesting(currentYear());
+        IdentifierSourceCache.getInstance().invalidateAll();
+    }
+
+    @Test
+    public void shouldResetSequenceExactlyOnceUnderConcurrentRegistrations() throws Exception {
+        identifierEnhancementFactory.setLastRecordedYearForTesting(currentYear() - 1);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            final int sequence = i + 2;
+            results.add(executor.submit(new Callable<String>() {
+
+                @Override
+                public String call() throws Exception {
+                    Patient patient = newPatient(PREFIX + sequence);
+                    start.await();
+                    return patientService.savePatient(patient).getPatientIdentifier().getIdentifier();
+                }
+            }));
+        }
+        start.countDown();
+
+        Set<String> identifiers = new HashSet<>();
+        int firstOfYear = 0;
+        for (Future<String> result : results) {
+            String identifier = result.get(30, TimeUnit.SECONDS);
+            assertTrue(identifier, identifier.startsWith(PREFIX + currentYear() + "-"));
+            if (identifier.endsWith("-000-001")) {
+                firstOfYear++;
+            }
+            identifiers.add(identifier);
+        }
+
+        assertEquals(1, firstOfYear);
+        assertEquals(REGISTRATIONS, identifiers.size());
+        verify(identifierSourceService, times(1)).saveSequenceValue(any(SequentialIdentifierGenerator.class), anyLong());
+    }
+
+    private Patient newPatient(String identifier) {
+        Patient patient = new Patient();
+        patient.setGender("F");
+        patient.addIdentifier(new PatientIdentifier(identifier, new PatientIdentifierType(), new Location()));
+        return patient;
+    }
+
+    private int currentYear() {
+        return Year.now().getValue() % 100;
+    }
+}
@@ -0,0 +1,186 @@
+package org.openmrs.module.paradygm.advice;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.time.Year;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.APIException;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierEnhancementFactory;
+import org.openmrs.module.paradygm.IdentifierSourceCache;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BeforeSaveAdviceTest {
+
+    private static final String PREFIX = "PDG200-";
+
+    private IdentifierSourceService identifierSourceService;
+
+    private IdentifierEnhancementFactory identifierEnhancementFactory;
+
+    private ExecutorService requestThread;
+
+    @Before
+    public void setUp() {
+        IdentifierSourceCache.getInstance().invalidateAll();
+        SequentialIdentifierGenerator generator = new SequentialIdentifierGenerator();
+        generator.setPrefix(PREFIX);
+        identifierSourceService = mock(IdentifierSourceService.class);
+        when(identifierSourceService.getIdentifierSourceByUuid(IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID))
+                .thenReturn(generator);
+
+        identifierEnhancementFactory = new IdentifierEnhancementFactory();
+        identifierEnhancementFactory.setIdentifierSourceService(identifierSourceService);
+        requestThread = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        requestThread.shutdownNow();
+        identifierEnhancementFactory.setLastRecordedYearForTesting(currentYear());
+        IdentifierSourceCache.getInstance().invalidateAll();
+    }
+
+    @Test
+    public void shouldNotRetainPatientsAfterFailedSaves() throws Exception {
+        // the failing registration also wins the year change, which used to leave state on the thread
+        identifierEnhancementFactory.setLastRecordedYearForTesting(currentYear() - 1);
+        final PatientService patientService = advise(failingPatientService());
+
+        WeakReference<Patient> failed = requestThread.submit(() -> saveAndFail(patientService)).get(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 50 && failed.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(failed.get());
+    }
+
+    @Test
+    public void shouldLeaveSequenceResetToNextRegistrationWhenSaveFails() {
+        identifierEnhancementFactory.setLastRecordedYearForTesting(currentYear() - 1);
+
+        saveAndFail(advise(failingPatientService()));
+        verify(identifierSourceService, never()).saveSequenceValue(any(SequentialIdentifierGenerator.class), anyLong());
+
+        Patient saved = advise(echoingPatientService()).savePatient(newPatient(PREFIX + 6));
+        assertEquals(PREFIX + currentYear() + "-000-001", saved.getPatientIdentifier().getIdentifier());
+        verify(identifierSourceService, times(1)).saveSequenceValue(any(SequentialIdentifierGenerator.class), anyLong());
+    }
+
+    @Test
+    public void shouldResetSequenceOnlyOnceTheTransactionOfTheSaveCommits() {
+        identifierEnhancementFactory.setLastRecordedYearForTesting(currentYear() - 1);
+        BeforeSaveAdvice advice = new BeforeSaveAdvice(identifierEnhancementFactory);
+        advice.setTransactionManager(mock(PlatformTransactionManager.class));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            advise(echoingPatientService(), advice).savePatient(newPatient(PREFIX + 6));
+            verify(identifierSourceService, never()).saveSequenceValue(any(SequentialIdentifierGenerator.class), anyLong());
+
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCommit();
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        verify(identifierSourceService, times(1)).saveSequenceValue(any(SequentialIdentifierGenerator.class), anyLong());
+    }
+
+    @Test
+    public void shouldLeaveSequenceResetToNextRegistrationWhenTheTransactionOfTheSaveRollsBack() {
+        identifierEnhancementFactory.setLastRecordedYearForTesting(currentYear() - 1);
+        BeforeSaveAdvice advice = new BeforeSaveAdvice(identifierEnhancementFactory);
+        advice.setTransactionManager(mock(PlatformTransactionManager.class));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // savePatient returns, but the batch it is part of fails to commit
+            advise(echoingPatientService(), advice).savePatient(newPatient(PREFIX + 5));
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        verify(identifierSourceService, never()).saveSequenceValue(any(SequentialIdentifierGenerator.class), anyLong());
+
+        Patient saved = advise(echoingPatientService()).savePatient(newPatient(PREFIX + 6));
+        assertEquals(PREFIX + currentYear() + "-000-001", saved.getPatientIdentifier().getIdentifier());
+        verify(identifierSourceService, times(1)).saveSequenceValue(any(SequentialIdentifierGenerator.class), anyLong());
+    }
+
+    private WeakReference<Patient> saveAndFail(PatientService patientService) {
+        Patient patient = newPatient(PREFIX + 5);
+        try {
+            patientService.savePatient(patient);
+            fail("savePatient should have failed");
+        }
+        catch (APIException expected) {
+        }
+        return new WeakReference<>(patient);
+    }
+
+    private PatientService advise(PatientService target) {
+        return advise(target, new BeforeSaveAdvice(identifierEnhancementFactory));
+    }
+
+    private PatientService advise(PatientService target, BeforeSaveAdvice advice) {
+        ProxyFactory proxyFactory = new ProxyFactory();
+        proxyFactory.setTarget(target);
+        proxyFactory.addInterface(PatientService.class);
+        proxyFactory.addAdvisor(new PatientSaveAdvisor(advice));
+        return (PatientService) proxyFactory.getProxy();
+    }
+
+    private PatientService failingPatientService() {
+        return (PatientService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PatientService.class },
+                (proxy, method, args) -> {
+                    throw new APIException("Patient failed validation");
+                });
+    }
+
+    private PatientService echoingPatientService() {
+        return (PatientService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PatientService.class },
+                (proxy, method, args) -> args[0]);
+    }
+
+    private Patient newPatient(String identifier) {
+        Patient patient = new Patient();
+        patient.setGender("F");
+        patient.addIdentifier(new PatientIdentifier(identifier, new PatientIdentifierType(), new Location()));
+        return patient;
+    }
+
+    private int currentYear() {
+        return Year.now().getValue() % 100;
+    }
+}
@@ -0,0 +1,26 @@
+package org.openmrs.module.paradygm.advice;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.PatientService;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PatientSaveAdvisorTest {
+
+    private final PatientSaveAdvisor advisor = new PatientSaveAdvisor(new BeforeSaveAdvice());
+
+    @Test
+    public void shouldOnlyMatchSavePatient() throws Exception {
+        assertTrue(advisor.matches(PatientService.class.getMethod("savePatient", Patient.class), PatientService.class));
+
+        for (Method method : PatientService.class.getMethods()) {
+            if (!method.getName().equals("savePatient")) {
+                assertFalse(method.getName(), advisor.matches(method, PatientService.class));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.openmrs.module.paradygm.duplicate;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.paradygm.duplicate.DuplicatePatientCheck.Mode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openmrs.module.paradygm.duplicate.DuplicatePatientIndexTest.date;
+import static org.openmrs.module.paradygm.duplicate.DuplicatePatientIndexTest.patient;
+
+public class DuplicatePatientCheckTest {
+
+    private DuplicatePatientIndex index;
+
+    private DuplicatePatientCheck check;
+
+    private PatientService patientService;
+
+    private Patient registered;
+
+    @Before
+    public void setUp() {
+        index = new DuplicatePatientIndex(100);
+        check = new DuplicatePatientCheck(index);
+        patientService = mock(PatientService.class);
+        check.setPatientService(patientService);
+        registered = patient(7, "Grace", "Wanjiru", "F", date(2001, 8, 14), false);
+        when(patientService.getPatient(7)).thenReturn(registered);
+    }
+
+    @Test
+    public void shouldRejectLikelyDuplicatesInRejectMode() {
+        check.setMode(Mode.REJECT);
+        check.patientSaved(registered);
+
+        try {
+            check.check(patient(null, "Grase", "Wanjiru", "F", date(2001, 8, 14), false));
+            fail("the duplicate should have been rejected");
+        }
+        catch (DuplicatePatientException e) {
+            assertEquals(Collections.singletonList(7), e.getDuplicatePatientIds());
+        }
+    }
+
+    @Test
+    public void shouldLetLikelyDuplicatesThroughInFlagMode() {
+        check.setMode(Mode.FLAG);
+        check.patientSaved(registered);
+
+        check.check(patient(null, "Grace", "Wanjiru", "F", date(2001, 8, 14), false));
+    }
+
+    @Test
+    public void shouldNotQueryPatientsWithoutAHit() {
+        check.setMode(Mode.REJECT);
+        check.patientSaved(registered);
+
+        check.check(patient(null, "Grace", "Otieno", "F", date(2001, 8, 14), false));
+
+        verify(patientService, never()).getPatient(anyInt());
+    }
+
+    @Test
+    public void shouldCorrectStaleEntriesInsteadOfRejecting() {
+        check.setMode(Mode.REJECT);
+        check.patientSaved(registered);
+        // renamed by a save the index did not see
+        when(patientService.getPatient(7)).thenReturn(patient(7, "Grace", "Otieno", "F", date(2001, 8, 14), false));
+
+        check.check(patient(null, "Grace", "Wanjiru", "F", date(2001, 8, 14), false));
+
+        assertEquals(Collections.singletonList(7),
+                index.find(PatientKey.of(null, "Grace", "Otieno", "F", date(2001, 8, 14), false)));
+    }
+
+    @Test
+    public void shouldNeitherCheckNorIndexWhenOff() {
+        check.load("flag");
+        check.patientSaved(registered);
+        check.load("off");
+
+        assertEquals(0, index.size());
+        check.patientSaved(registered);
+        assertEquals(0, index.size());
+        check.check(patient(null, "Grace", "Wanjiru", "F", date(2001, 8, 14), false));
+    }
+}
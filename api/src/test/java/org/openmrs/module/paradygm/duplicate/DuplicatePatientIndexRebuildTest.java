@@ -0,0 +1,107 @@
+package org.openmrs.module.paradygm.duplicate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.paradygm.duplicate.DuplicatePatientCheck.Mode;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.openmrs.module.paradygm.duplicate.DuplicatePatientIndexTest.date;
+import static org.openmrs.module.paradygm.duplicate.DuplicatePatientIndexTest.patient;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+@PowerMockIgnore({"javax.management.*", "jdk.internal.reflect.*"})
+public class DuplicatePatientIndexRebuildTest {
+
+    private static final Date BIRTHDATE = date(1985, 3, 3);
+
+    @Mock
+    private DuplicatePatientDao dao;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final DuplicatePatientIndex index = new DuplicatePatientIndex(3);
+
+    private final DuplicatePatientCheck check = new DuplicatePatientCheck(index);
+
+    @Before
+    public void setUp() {
+        PowerMockito.mockStatic(Context.class);
+        when(Context.getRegisteredComponent("paradygm.duplicatePatientDao", DuplicatePatientDao.class)).thenReturn(dao);
+        when(Context.getRegisteredComponent("transactionManager", PlatformTransactionManager.class))
+                .thenReturn(transactionManager);
+        check.setMode(Mode.FLAG);
+    }
+
+    @Test
+    public void shouldEvictTheOldestRebuiltPatientsWhenNewPatientsAreRegistered() {
+        when(dao.getNewestPatients(Integer.MAX_VALUE, 3)).thenReturn(rows(5, 4, 3));
+
+        new DuplicatePatientIndexRebuild(index, check).run();
+        assertTrue(index.isRebuilt());
+        assertEquals(Arrays.asList(3, 4, 5), indexedPatients());
+
+        index.add(patient(6, "Amina", "Hassan", "F", BIRTHDATE, false));
+        index.add(patient(7, "Amina", "Hassan", "F", BIRTHDATE, false));
+
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList(5, 6, 7), indexedPatients());
+    }
+
+    @Test
+    public void shouldKeepThePatientsRegisteredWhileRebuilding() {
+        when(dao.getNewestPatients(Integer.MAX_VALUE, 3)).thenAnswer(invocation -> {
+            index.add(patient(6, "Amina", "Hassan", "F", BIRTHDATE, false));
+            return rows(5, 4, 3);
+        });
+
+        new DuplicatePatientIndexRebuild(index, check).run();
+
+        assertEquals(Arrays.asList(4, 5, 6), indexedPatients());
+    }
+
+    @Test
+    public void shouldIndexARemovedPatientAgainAsANewEntry() {
+        when(dao.getNewestPatients(Integer.MAX_VALUE, 3)).thenReturn(rows(3, 2, 1));
+        new DuplicatePatientIndexRebuild(index, check).run();
+
+        index.remove(2);
+        index.add(patient(2, "Amina", "Hassan", "F", BIRTHDATE, false));
+        index.add(patient(4, "Amina", "Hassan", "F", BIRTHDATE, false));
+
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList(2, 3, 4), indexedPatients());
+    }
+
+    private List<Integer> indexedPatients() {
+        List<Integer> patientIds = new ArrayList<>(index.find(PatientKey.of(null, "Amina", "Hassan", "F", BIRTHDATE,
+                false)));
+        Collections.sort(patientIds);
+        return patientIds;
+    }
+
+    private static List<Object[]> rows(int... patientIds) {
+        List<Object[]> rows = new ArrayList<>();
+        for (int patientId : patientIds) {
+            rows.add(new Object[] { patientId, "Amina", "Hassan", "F", BIRTHDATE, false });
+        }
+        return rows;
+    }
+}
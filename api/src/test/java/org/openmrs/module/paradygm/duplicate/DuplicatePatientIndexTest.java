@@ -0,0 +1,96 @@
+package org.openmrs.module.paradygm.duplicate;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.PersonName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicatePatientIndexTest {
+
+    private final DuplicatePatientIndex index = new DuplicatePatientIndex(3);
+
+    @Test
+    public void shouldEncodeNamesWithSoundex() {
+        assertEquals("R163", Soundex.encode("Robert"));
+        assertEquals("R163", Soundex.encode("Rupert"));
+        assertEquals("A261", Soundex.encode("Ashcraft"));
+        assertEquals("T522", Soundex.encode("Tymczak"));
+        assertEquals("P236", Soundex.encode("Pfister"));
+        assertEquals("O200", Soundex.encode("o'Oke"));
+        assertNull(Soundex.encode("-"));
+    }
+
+    @Test
+    public void shouldFindPatientsWithSimilarNamesAndSameBirthdate() {
+        index.add(patient(1, "Robert", "Mwangi", "M", date(1990, 5, 1), false));
+
+        assertEquals(Collections.singletonList(1), index.find(key(null, "Rupert", "Mwangy", "M", date(1990, 5, 1), false)));
+        assertTrue(index.find(key(null, "Rupert", "Mwangi", "F", date(1990, 5, 1), false)).isEmpty());
+        assertTrue(index.find(key(null, "Rupert", "Mwangi", "M", date(1990, 5, 2), false)).isEmpty());
+        assertTrue(index.find(key(null, "Rupert", "Otieno", "M", date(1990, 5, 1), false)).isEmpty());
+        // an estimated birthdate only has to fall in the same year
+        assertEquals(Collections.singletonList(1), index.find(key(null, "Robert", "Mwangi", "M", date(1990, 1, 1), true)));
+    }
+
+    @Test
+    public void shouldDropThePatientIndexedLongestAgoWhenFull() {
+        for (int patientId = 1; patientId <= 4; patientId++) {
+            index.add(patient(patientId, "Amina", "Hassan", "F", date(1985, 3, 3), false));
+        }
+
+        assertEquals(3, index.size());
+        assertEquals(3, index.find(key(null, "Amina", "Hassan", "F", date(1985, 3, 3), false)).size());
+        assertTrue(!index.find(key(null, "Amina", "Hassan", "F", date(1985, 3, 3), false)).contains(1));
+    }
+
+    @Test
+    public void shouldMoveRenamedPatientsAndDropVoidedOnes() {
+        index.add(patient(1, "Amina", "Hassan", "F", date(1985, 3, 3), false));
+        index.add(patient(1, "Amina", "Otieno", "F", date(1985, 3, 3), false));
+
+        assertTrue(index.find(key(null, "Amina", "Hassan", "F", date(1985, 3, 3), false)).isEmpty());
+        assertEquals(Collections.singletonList(1), index.find(key(null, "Amina", "Otieno", "F", date(1985, 3, 3), false)));
+
+        Patient voided = patient(1, "Amina", "Otieno", "F", date(1985, 3, 3), false);
+        voided.setVoided(true);
+        index.add(voided);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void shouldNotMatchAPatientWithItself() {
+        index.add(patient(1, "Amina", "Hassan", "F", date(1985, 3, 3), false));
+
+        assertTrue(index.find(key(1, "Amina", "Hassan", "F", date(1985, 3, 3), false)).isEmpty());
+    }
+
+    static Patient patient(Integer patientId, String givenName, String familyName, String gender, Date birthdate,
+                           boolean estimated) {
+        Patient patient = new Patient();
+        patient.setPatientId(patientId);
+        patient.addName(new PersonName(givenName, null, familyName));
+        patient.setGender(gender);
+        patient.setBirthdate(birthdate);
+        patient.setBirthdateEstimated(estimated);
+        return patient;
+    }
+
+    static Date date(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTime();
+    }
+
+    private PatientKey key(Integer patientId, String givenName, String familyName, String gender, Date birthdate,
+                           boolean estimated) {
+        return PatientKey.of(patientId, givenName, familyName, gender, birthdate, estimated);
+    }
+}
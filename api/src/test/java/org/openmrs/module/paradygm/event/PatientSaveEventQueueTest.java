@@ -0,0 +1,146 @@
+package org.openmrs.module.paradygm.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PatientSaveEventQueueTest {
+
+    private PatientSaveEventQueue queue;
+
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldDeliverEventsOfEachPatientInOrderAndDrainOnStop() {
+        queue = new PatientSaveEventQueue(4, 10000, 50, 1000);
+        RecordingHandler handler = new RecordingHandler();
+        queue.addHandler(handler);
+        queue.start();
+
+        for (int i = 0; i < 1000; i++) {
+            queue.publish(event(i % 10, "save-" + i));
+        }
+
+        assertTrue(queue.drain(10000));
+        for (int patientId = 0; patientId < 10; patientId++) {
+            List<String> saves = handler.savesOf(patientId);
+            assertEquals(100, saves.size());
+            for (int i = 0; i < saves.size(); i++) {
+                assertEquals("save-" + (i * 10 + patientId), saves.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void shouldHandleEventOnSavingThreadWhenQueueIsFull() throws Exception {
+        queue = new PatientSaveEventQueue(1, 1, 1, 10);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        queue.addHandler(events -> {
+            threads.add(Thread.currentThread().getName());
+            if (events.get(0).getPatientUuid().equals("first")) {
+                blocked.countDown();
+                release.await();
+            }
+        });
+        queue.start();
+
+        queue.publish(event(1, "first"));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        queue.publish(event(1, "queued"));
+        queue.publish(event(1, "overflow"));
+
+        assertEquals(Thread.currentThread().getName(), threads.get(threads.size() - 1));
+        release.countDown();
+        assertTrue(queue.drain(5000));
+        assertEquals(3, threads.size());
+    }
+
+    @Test
+    public void shouldHandleEveryEventPublishedWhileDraining() throws Exception {
+        queue = new PatientSaveEventQueue(2, 10000, 50, 1000);
+        final AtomicInteger handled = new AtomicInteger();
+        queue.addHandler(events -> handled.addAndGet(events.size()));
+        queue.start();
+
+        int publishers = 8;
+        final int eventsPerPublisher = 2000;
+        final CountDownLatch publishing = new CountDownLatch(publishers);
+        ExecutorService executor = Executors.newFixedThreadPool(publishers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < publishers; p++) {
+                final int publisher = p;
+                futures.add(executor.submit(() -> {
+                    publishing.countDown();
+                    for (int i = 0; i < eventsPerPublisher; i++) {
+                        queue.publish(event(publisher * eventsPerPublisher + i, "save-" + i));
+                    }
+                }));
+            }
+            assertTrue(publishing.await(5, TimeUnit.SECONDS));
+
+            assertTrue(queue.drain(10000));
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // published after the drain, these are handled on the saving thread
+        assertEquals(publishers * eventsPerPublisher, handled.get());
+    }
+
+    @Test
+    public void shouldHandleEventsOnSavingThreadWhenNotStarted() {
+        queue = new PatientSaveEventQueue(1, 10, 10, 10);
+        RecordingHandler handler = new RecordingHandler();
+        queue.addHandler(handler);
+
+        queue.publish(event(1, "save"));
+
+        assertEquals(Collections.singletonList("save"), handler.savesOf(1));
+    }
+
+    private PatientSavedEvent event(int patientId, String uuid) {
+        return new PatientSavedEvent(patientId, uuid, Collections.<PatientSavedEvent.SavedIdentifier>emptyList());
+    }
+
+    private static class RecordingHandler implements PatientSaveHandler {
+
+        private final Map<Integer, List<String>> saves = new ConcurrentHashMap<>();
+
+        @Override
+        public void patientsSaved(List<PatientSavedEvent> events) {
+            for (PatientSavedEvent event : events) {
+                saves.computeIfAbsent(event.getPatientId(), id -> Collections.synchronizedList(new ArrayList<String>()))
+                        .add(event.getPatientUuid());
+            }
+        }
+
+        List<String> savesOf(int patientId) {
+            List<String> patientSaves = saves.get(patientId);
+            return patientSaves != null ? patientSaves : Collections.<String>emptyList();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package org.openmrs.module.paradygm.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.APIException;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.paradygm.IdentifierEnhancementFactory;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+@PowerMockIgnore({"javax.management.*", "jdk.internal.reflect.*"})
+public class PatientBatchImporterTest {
+
+    private static final String CHECKPOINT = PatientImportCheckpoint.GP_PREFIX + "patients.csv";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private IdentifierSourceService identifierSourceService;
+
+    @Mock
+    private PatientService patientService;
+
+    @Mock
+    private AdministrationService administrationService;
+
+    @Mock
+    private LocationService locationService;
+
+    private final FakeTransactionManager transactions = new FakeTransactionManager();
+
+    /** Family names whose save fails with an exception. */
+    private final Set<String> failing = new HashSet<>();
+
+    /** Family names whose save kills the import, like the JVM being stopped half way through a transaction. */
+    private final Set<String> crashing = new HashSet<>();
+
+    private int nextIdentifier;
+
+    private PatientBatchImporter importer;
+
+    @Before
+    public void setUp() {
+        importer = new PatientBatchImporter();
+        PowerMockito.mockStatic(Context.class);
+        when(Context.getService(IdentifierSourceService.class)).thenReturn(identifierSourceService);
+        when(Context.getPatientService()).thenReturn(patientService);
+        when(Context.getAdministrationService()).thenReturn(administrationService);
+        when(Context.getLocationService()).thenReturn(locationService);
+        when(Context.getRegisteredComponent("transactionManager", PlatformTransactionManager.class))
+                .thenReturn(transactions);
+
+        PatientIdentifierType identifierType = new PatientIdentifierType();
+        SequentialIdentifierGenerator source = new SequentialIdentifierGenerator();
+        source.setIdentifierType(identifierType);
+        when(identifierSourceService.getIdentifierSourceByUuid(IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID))
+                .thenReturn(source);
+        when(identifierSourceService.generateIdentifiers(eq(source), anyInt(), anyString())).thenAnswer(invocation -> {
+            List<String> identifiers = new ArrayList<>();
+            for (int i = 0; i < (Integer) invocation.getArgument(1); i++) {
+                identifiers.add("PDG200-" + ++nextIdentifier);
+            }
+            return identifiers;
+        });
+        when(patientService.getPatientIdentifierTypeByUuid(any())).thenReturn(identifierType);
+        when(locationService.getDefaultLocation()).thenReturn(new Location());
+
+        when(patientService.savePatient(any(Patient.class))).thenAnswer(invocation -> {
+            Patient patient = invocation.getArgument(0);
+            String familyName = patient.getFamilyName();
+            if (crashing.contains(familyName)) {
+                throw new Crash();
+            }
+            if (failing.contains(familyName)) {
+                throw new APIException("Duplicate patient " + familyName);
+            }
+            transactions.pendingPatients.add(familyName);
+            return patient;
+        });
+        when(administrationService.getGlobalProperty(anyString()))
+                .thenAnswer(invocation -> transactions.globalProperties.get(invocation.<String> getArgument(0)));
+        doAnswer(invocation -> transactions.pendingGlobalProperties.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(administrationService).setGlobalProperty(anyString(), anyString());
+    }
+
+    @Test
+    public void shouldImportInBatchesWithOneTransactionPerBatch() throws IOException {
+        File source = writeSource("A", "B", "C", "D", "E");
+
+        PatientImportProgress progress = importer.importPatients(source, options(2));
+
+        assertEquals(5, progress.getImported());
+        assertEquals(0, progress.getFailed());
+        assertEquals(names("A", "B", "C", "D", "E"), transactions.patients);
+        verify(identifierSourceService, times(2)).generateIdentifiers(any(), eq(2), anyString());
+        verify(identifierSourceService).generateIdentifiers(any(), eq(1), anyString());
+        // one transaction per batch and one marking the import completed
+        assertEquals(4, transactions.commits);
+        assertEquals("processed=5;imported=5;failed=0;completed=true", transactions.globalProperties.get(CHECKPOINT));
+    }
+
+    @Test
+    public void shouldRetryRecordsOfFailedBatchOneByOne() throws IOException {
+        failing.add("B");
+        File source = writeSource("A", "B", "C", "-", "E");
+
+        PatientImportProgress progress = importer.importPatients(source, options(5));
+
+        assertEquals(3, progress.getImported());
+        assertEquals(2, progress.getFailed());
+        assertEquals(names("A", "C", "E"), transactions.patients);
+        assertEquals(2, transactions.rollbacks);
+
+        List<String> failures = Files.readAllLines(new File(source.getPath() + ".failures.csv").toPath());
+        assertEquals(3, failures.size());
+        assertTrue(failures.get(1).startsWith("4,"));
+        assertTrue(failures.get(2).startsWith("2,"));
+        assertTrue(failures.get(2).endsWith("Duplicate patient B"));
+        assertEquals("processed=5;imported=3;failed=2;completed=true", transactions.globalProperties.get(CHECKPOINT));
+    }
+
+    @Test
+    public void shouldResumeAfterLastCommittedBatchWithoutImportingAnyPatientTwice() throws IOException {
+        crashing.add("D");
+        File source = writeSource("A", "B", "C", "D", "E");
+
+        importUntilCrash(source, options(2));
+        assertEquals(names("A", "B"), transactions.patients);
+        assertEquals("processed=2;imported=2;failed=0;completed=false", transactions.globalProperties.get(CHECKPOINT));
+
+        crashing.clear();
+        PatientImportProgress progress = importer.importPatients(source, options(2));
+
+        assertEquals(names("A", "B", "C", "D", "E"), transactions.patients);
+        assertEquals(5, progress.getProcessed());
+        assertEquals(5, progress.getImported());
+    }
+
+    @Test
+    public void shouldResumeAfterLastRecordCommittedWhileRetryingOneByOne() throws IOException {
+        failing.add("B");
+        crashing.add("D");
+        File source = writeSource("A", "B", "C", "D", "E");
+
+        importUntilCrash(source, options(5));
+        assertEquals(names("A", "C"), transactions.patients);
+        assertEquals("processed=3;imported=2;failed=1;completed=false", transactions.globalProperties.get(CHECKPOINT));
+
+        crashing.clear();
+        PatientImportProgress progress = importer.importPatients(source, options(5));
+
+        assertEquals(names("A", "C", "D", "E"), transactions.patients);
+        assertEquals(4, progress.getImported());
+        assertEquals(1, progress.getFailed());
+    }
+
+    @Test
+    public void shouldNotImportCompletedSourceAgain() throws IOException {
+        File source = writeSource("A");
+        transactions.globalProperties.put(CHECKPOINT, "processed=1;imported=1;failed=0;completed=true");
+
+        PatientImportProgress progress = importer.importPatients(source, options(2));
+
+        assertTrue(progress.isCompleted());
+        assertEquals(0, transactions.commits);
+        assertTrue(transactions.patients.isEmpty());
+    }
+
+    private void importUntilCrash(File source, PatientImportOptions options) throws IOException {
+        try {
+            importer.importPatients(source, options);
+            fail();
+        }
+        catch (Crash expected) {
+            // the import stops like a killed process, only what was committed survives
+        }
+    }
+
+    private PatientImportOptions options(int batchSize) {
+        PatientImportOptions options = new PatientImportOptions();
+        options.setBatchSize(batchSize);
+        return options;
+    }
+
+    /**
+     * Writes one record per family name, a family name of {@code -} is written as a record without a gender.
+     */
+    private File writeSource(String... familyNames) throws IOException {
+        StringBuilder csv = new StringBuilder("given_name,family_name,gender\n");
+        for (String familyName : familyNames) {
+            csv.append("Test,").append(familyName).append(familyName.equals("-") ? ",\n" : ",F\n");
+        }
+        File source = new File(folder.getRoot(), "patients.csv");
+        Files.write(source.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+        return source;
+    }
+
+    private static List<String> names(String... familyNames) {
+        List<String> names = new ArrayList<>();
+        for (String familyName : familyNames) {
+            names.add(familyName);
+        }
+        return names;
+    }
+
+    private static class Crash extends Error {
+    }
+
+    /**
+     * Keeps saved patients and global properties apart until the transaction commits, like the database would.
+     */
+    private static class FakeTransactionManager implements PlatformTransactionManager {
+
+        private final List<String> patients = new ArrayList<>();
+
+        private final Map<String, String> globalProperties = new HashMap<>();
+
+        private final List<String> pendingPatients = new ArrayList<>();
+
+        private final Map<String, String> pendingGlobalProperties = new HashMap<>();
+
+        private int commits;
+
+        private int rollbacks;
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            patients.addAll(pendingPatients);
+            globalProperties.putAll(pendingGlobalProperties);
+            commits++;
+            discardPending();
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            rollbacks++;
+            discardPending();
+        }
+
+        private void discardPending() {
+            pendingPatients.clear();
+            pendingGlobalProperties.clear();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.openmrs.module.paradygm.importer;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PatientRecordReaderTest {
+
+    @Test
+    public void shouldReadCsvRecordsByHeaderName() throws IOException {
+        String csv = "family_name,given_name,gender,birthdate,unknown\r\n"
+                + "Okello,John,M,1990-01-31,x\r\n"
+                + "\"Achieng, Jr\",\"Mary \"\"May\"\"\",F,,\r\n";
+        try (PatientRecordReader reader = new CsvPatientRecordReader(new StringReader(csv))) {
+            PatientImportRecord first = reader.next();
+            assertEquals(1, first.getRecordNumber());
+            assertEquals("John", first.getGivenName());
+            assertEquals("Okello", first.getFamilyName());
+            assertEquals("M", first.getGender());
+            assertEquals("1990-01-31", first.getBirthdate());
+
+            PatientImportRecord second = reader.next();
+            assertEquals(2, second.getRecordNumber());
+            assertEquals("Achieng, Jr", second.getFamilyName());
+            assertEquals("Mary \"May\"", second.getGivenName());
+            assertNull(second.getBirthdate());
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void shouldReadQuotedLineBreaksAndLastRowWithoutNewline() throws IOException {
+        String csv = "given_name,family_name\n\"Multi\nLine\",Doe\nJane,Roe";
+        try (PatientRecordReader reader = new CsvPatientRecordReader(new StringReader(csv))) {
+            assertEquals("Multi\nLine", reader.next().getGivenName());
+            assertEquals("Roe", reader.next().getFamilyName());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void shouldStreamJsonArrayOfRecords() throws IOException {
+        String json = "[{\"given_name\":\"John\",\"family_name\":\"Okello\",\"gender\":\"M\",\"birthdate\":null},"
+                + "{\"given_name\":\"Mary\",\"family_name\":\"Achieng\",\"gender\":\"F\",\"legacy_identifier\":\"R-77\"}]";
+        try (PatientRecordReader reader = new JsonPatientRecordReader(new StringReader(json))) {
+            PatientImportRecord first = reader.next();
+            assertEquals("John", first.getGivenName());
+            assertNull(first.getBirthdate());
+
+            PatientImportRecord second = reader.next();
+            assertEquals(2, second.getRecordNumber());
+            assertEquals("R-77", second.getLegacyIdentifier());
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void shouldSkipAlreadyImportedRecordsWhenResuming() throws IOException {
+        String csv = "given_name\nA\nB\nC\n";
+        try (PatientRecordReader reader = new CsvPatientRecordReader(new StringReader(csv))) {
+            assertEquals(2, reader.skip(2));
+            PatientImportRecord record = reader.next();
+            assertEquals("C", record.getGivenName());
+            assertEquals(3, record.getRecordNumber());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.openmrs.module.paradygm.lookup;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.paradygm.IdentifierTemplate;
+import org.openmrs.module.paradygm.ParadygmIdFormatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IdentifierLookupIndexTest {
+
+    private static final String PREFIX = "PDG200-";
+
+    private static final String FACILITY_PREFIX = "KLA100-";
+
+    private IdentifierLookupIndex index;
+
+    @Before
+    public void setUp() {
+        index = new IdentifierLookupIndex();
+        index.add(1, PREFIX, "PDG200-25-123-456");
+        index.add(2, PREFIX, "PDG200-24-123-456");
+        index.add(3, PREFIX, "PDG200-25-000-001");
+        index.add(4, FACILITY_PREFIX, "KLA100-25-000-001");
+    }
+
+    @Test
+    public void shouldFindPatientByFullId() {
+        assertEquals(Collections.singletonList(1), index.find("PDG200-25-123-456"));
+        assertEquals(Collections.singletonList(4), index.find("KLA100-25-000-001"));
+    }
+
+    @Test
+    public void shouldFindPatientByUnhyphenatedOrLowerCaseId() {
+        assertEquals(Collections.singletonList(1), index.find("pdg20025123456"));
+        assertEquals(Collections.singletonList(1), index.find(" pdg200 25 123 456 "));
+    }
+
+    @Test
+    public void shouldFindPatientsOfAllPrefixesByYearAndSequence() {
+        assertEquals(Collections.singletonList(1), index.find("25123456"));
+        assertEquals(Arrays.asList(3, 4), index.find("25-000-001"));
+    }
+
+    @Test
+    public void shouldFindBareSequenceInEveryYearNewestFirst() {
+        assertEquals(Arrays.asList(1, 2), index.find("123456"));
+        assertEquals(Arrays.asList(1, 2), index.find("123-456"));
+    }
+
+    @Test
+    public void shouldNotFindUnknownOrInvalidIds() {
+        assertTrue(index.find("PDG200-25-999-999").isEmpty());
+        assertTrue(index.find("XYZ-25-123-456").isEmpty());
+        assertTrue(index.find("123456789").isEmpty());
+        assertTrue(index.find("").isEmpty());
+        assertTrue(index.find(null).isEmpty());
+    }
+
+    @Test
+    public void shouldNotIndexIdentifiersThatAreNotParadygmIds() {
+        assertFalse(index.add(5, PREFIX, "OLD-123"));
+        assertFalse(index.add(5, PREFIX, "PDG200-ABC"));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void shouldDropStaleEntriesWhenResolvingPatients() {
+        PatientService patientService = mock(PatientService.class);
+        Patient current = patient(1, "PDG200-25-123-456");
+        when(patientService.getPatient(1)).thenReturn(current);
+        when(patientService.getPatient(2)).thenReturn(patient(2, "PDG200-24-999-999"));
+
+        assertEquals(Collections.singletonList(current), index.findPatients("123456", patientService));
+        assertEquals(Collections.singletonList(1), index.find("123456"));
+    }
+
+    @Test
+    public void shouldIndexWiderSequencesAndFindThemWithTheirCheckDigit() {
+        ParadygmIdFormatter formatter = ParadygmIdFormatter.getInstance();
+        formatter.setTemplate(IdentifierTemplate.compile("{prefix}{yy}-{seq:7,group3}{luhn}"));
+        try {
+            String identifier = formatter.format(PREFIX, 25, 1234567);
+            assertEquals("PDG200-25-1-234-5673", identifier);
+            assertTrue(index.add(5, PREFIX, identifier));
+
+            assertEquals(Collections.singletonList(5), index.find(identifier));
+            assertEquals(Collections.singletonList(5), index.find("2512345673"));
+            assertEquals(Collections.singletonList(5), index.find("1-234-567"));
+            assertTrue(index.find("PDG200-25-1-234-5674").isEmpty());
+        } finally {
+            formatter.setTemplate(null);
+        }
+    }
+
+    @Test
+    public void shouldKeepIndexingAndFindingIdsIssuedBeforeTheTemplateChanged() {
+        ParadygmIdFormatter formatter = ParadygmIdFormatter.getInstance();
+        formatter.setTemplate(IdentifierTemplate.compile("{prefix}{yy}-{seq:7,group3}{luhn}"));
+        try {
+            assertTrue(index.add(5, PREFIX, "PDG200-24-000-002"));
+
+            assertEquals(Collections.singletonList(5), index.find("PDG200-24-000-002"));
+            assertEquals(Collections.singletonList(1), index.find("pdg20025123456"));
+            assertEquals(Arrays.asList(1, 2), index.find("123456"));
+
+            PatientService patientService = mock(PatientService.class);
+            Patient patient = patient(5, "PDG200-24-000-002");
+            when(patientService.getPatient(5)).thenReturn(patient);
+            assertEquals(Collections.singletonList(patient), index.findPatients("24-000-002", patientService));
+        } finally {
+            formatter.setTemplate(null);
+        }
+    }
+
+    private Patient patient(int patientId, String identifier) {
+        Patient patient = new Patient(patientId);
+        patient.addIdentifier(new PatientIdentifier(identifier, null, null));
+        return patient;
+    }
+}
@@ -0,0 +1,55 @@
+package org.openmrs.module.paradygm.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldPutValuesIntoBucketsByInclusiveUpperBound() {
+        long[] bounds = LatencyHistogram.getUpperBounds();
+        assertEquals(0, LatencyHistogram.bucketIndex(0));
+        assertEquals(0, LatencyHistogram.bucketIndex(1024));
+        assertEquals(1, LatencyHistogram.bucketIndex(1025));
+        assertEquals(1, LatencyHistogram.bucketIndex(1536));
+        assertEquals(2, LatencyHistogram.bucketIndex(1537));
+        assertEquals(2, LatencyHistogram.bucketIndex(2048));
+        for (int i = 1; i < bounds.length; i++) {
+            assertEquals(i, LatencyHistogram.bucketIndex(bounds[i]));
+            assertEquals(i, LatencyHistogram.bucketIndex(bounds[i - 1] + 1));
+        }
+        assertEquals(bounds.length, LatencyHistogram.bucketIndex(bounds[bounds.length - 1] + 1));
+        assertEquals(bounds.length, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldEstimateQuantilesFromBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1_000_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(50_000_000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(590_000_000, histogram.getTotalNanos());
+        assertEquals(50_000_000, histogram.getMaxNanos());
+        assertEquals(1_048_576, histogram.getQuantileNanos(0.5));
+        assertEquals(1_048_576, histogram.getQuantileNanos(0.9));
+        // capped at the largest value seen rather than the bucket bound of 50331648
+        assertEquals(50_000_000, histogram.getQuantileNanos(0.99));
+    }
+
+    @Test
+    public void shouldStartOverAfterReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5_000);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getQuantileNanos(0.5));
+    }
+}
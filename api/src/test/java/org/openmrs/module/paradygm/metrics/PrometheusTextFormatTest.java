@@ -0,0 +1,61 @@
+package org.openmrs.module.paradygm.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.paradygm.metrics.ParadygmMetrics.Phase;
+
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusTextFormatTest {
+
+    private final ParadygmMetrics metrics = ParadygmMetrics.getInstance();
+
+    @Before
+    @After
+    public void reset() {
+        metrics.reset();
+    }
+
+    @Test
+    public void shouldWriteCountersAndCumulativeHistogramBuckets() throws Exception {
+        // started ten seconds ago, so both registrations land far above the buckets checked below
+        long start = System.nanoTime() - 10_000_000_000L;
+        metrics.getRegistrationLatency().record(1_500);
+        metrics.getRegistrationLatency().record(3_000_000);
+        metrics.recordRegistration(start, true);
+        metrics.recordRegistration(start, false);
+        metrics.recordSequenceReset();
+        metrics.recordPhase(Phase.FORMAT, System.nanoTime());
+
+        String text = write();
+
+        assertTrue(text.contains("# TYPE paradygm_registrations_total counter\nparadygm_registrations_total 1\n"));
+        assertTrue(text.contains("paradygm_registration_failures_total 1\n"));
+        assertTrue(text.contains("paradygm_sequence_resets_total 1\n"));
+        assertTrue(text.contains("# TYPE paradygm_registration_duration_seconds histogram\n"));
+        assertTrue(text.contains("paradygm_registration_duration_seconds_bucket{le=\"0.000001024\"} 0\n"));
+        assertTrue(text.contains("paradygm_registration_duration_seconds_bucket{le=\"0.000001536\"} 1\n"));
+        assertTrue(text.contains("paradygm_registration_duration_seconds_bucket{le=\"0.003145728\"} 2\n"));
+        assertTrue(text.contains("paradygm_registration_duration_seconds_bucket{le=\"+Inf\"} 4\n"));
+        assertTrue(text.contains("paradygm_registration_duration_seconds_count 4\n"));
+        assertTrue(text.contains("# TYPE paradygm_identifier_phase_duration_seconds histogram\n"));
+        assertTrue(text.contains("paradygm_identifier_phase_duration_seconds_bucket{phase=\"format\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("paradygm_identifier_phase_duration_seconds_count{phase=\"format\"} 1\n"));
+        assertTrue(text.contains("paradygm_identifier_phase_duration_seconds_count{phase=\"sequence_reset\"} 0\n"));
+    }
+
+    @Test
+    public void shouldOnlyWriteCommentsAndSamples() throws Exception {
+        for (String line : write().split("\n")) {
+            assertTrue(line, line.startsWith("# HELP paradygm_") || line.startsWith("# TYPE paradygm_")
+                    || line.matches("paradygm_[a-z_]+(\\{[a-z]+=\"[^\"]+\"(,[a-z]+=\"[^\"]+\")*\\})? [0-9.]+"));
+        }
+    }
+
+    private String write() throws Exception {
+        StringBuilder out = new StringBuilder();
+        new PrometheusTextFormat(metrics).write(out);
+        return out.toString();
+    }
+}
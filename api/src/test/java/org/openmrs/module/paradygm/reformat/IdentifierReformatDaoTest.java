@@ -0,0 +1,64 @@
+package org.openmrs.module.paradygm.reformat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.User;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IdentifierReformatDaoTest {
+
+    private static final String PREFIX = "PDG200-";
+
+    private DbSession session;
+
+    private IdentifierReformatDao dao;
+
+    @Before
+    public void setUp() {
+        session = mock(DbSession.class);
+        DbSessionFactory sessionFactory = mock(DbSessionFactory.class);
+        when(sessionFactory.getCurrentSession()).thenReturn(session);
+        dao = new IdentifierReformatDao();
+        dao.setSessionFactory(sessionFactory);
+    }
+
+    @Test
+    public void shouldRewriteTheManagedIdentifierSoSearchIndexesTheNewValue() {
+        PatientIdentifier patientIdentifier = new PatientIdentifier(PREFIX + 42, null, null);
+        when(session.get(PatientIdentifier.class, 11)).thenReturn(patientIdentifier);
+        User changedBy = new User(3);
+
+        assertTrue(dao.updateIdentifier(11, PREFIX + 42, PREFIX + "19-000-042", changedBy));
+
+        // a bulk update would bypass the entity events Hibernate Search indexes the identifier on
+        assertEquals(PREFIX + "19-000-042", patientIdentifier.getIdentifier());
+        assertEquals(changedBy, patientIdentifier.getChangedBy());
+        assertNotNull(patientIdentifier.getDateChanged());
+        verify(session, never()).createQuery(anyString());
+    }
+
+    @Test
+    public void shouldNotRewriteIdentifierChangedSinceItWasRead() {
+        PatientIdentifier patientIdentifier = new PatientIdentifier(PREFIX + 43, null, null);
+        when(session.get(PatientIdentifier.class, 11)).thenReturn(patientIdentifier);
+
+        assertFalse(dao.updateIdentifier(11, PREFIX + 42, PREFIX + "19-000-042", null));
+        assertFalse(dao.updateIdentifier(12, PREFIX + 42, PREFIX + "19-000-042", null));
+
+        assertEquals(PREFIX + 43, patientIdentifier.getIdentifier());
+        assertNull(patientIdentifier.getDateChanged());
+    }
+}
@@ -0,0 +1,140 @@
+package org.openmrs.module.paradygm.reformat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.module.paradygm.lookup.IdentifierLookupIndex;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IdentifierReformatterTest {
+
+    private static final String PREFIX = "PDG200-";
+
+    private static final String TYPE_UUID = "paradygm-identifier-type";
+
+    private IdentifierReformatDao dao;
+
+    private AdministrationService administrationService;
+
+    private PlatformTransactionManager transactionManager;
+
+    @Before
+    public void setUp() {
+        dao = mock(IdentifierReformatDao.class);
+        administrationService = mock(AdministrationService.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(dao.updateIdentifier(anyInt(), anyString(), anyString(), any())).thenReturn(true);
+        IdentifierLookupIndex.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        IdentifierLookupIndex.getInstance().clear();
+    }
+
+    @Test
+    public void shouldRewriteRawIdentifiersInTheYearTheyWereCreated() {
+        pages(Arrays.asList(
+                row(11, 1, PREFIX + 42, 2019),
+                row(12, 2, PREFIX + "25-000-007", 2025),
+                row(13, 3, "LEGACY-9", 2020),
+                row(14, 4, PREFIX + 43, 2024)));
+
+        IdentifierReformatter reformatter = newReformatter(10);
+        reformatter.run();
+
+        verify(dao).updateIdentifier(11, PREFIX + 42, PREFIX + "19-000-042", null);
+        verify(dao).updateIdentifier(14, PREFIX + 43, PREFIX + "24-000-043", null);
+        verify(dao, times(2)).updateIdentifier(anyInt(), anyString(), anyString(), any());
+        verify(administrationService).setGlobalProperty(IdentifierReformatter.GP_LAST_IDENTIFIER_ID, "14");
+        assertEquals(4, reformatter.getExamined());
+        assertEquals(2, reformatter.getRewritten());
+        assertEquals(Collections.singletonList(1), IdentifierLookupIndex.getInstance().find("19-000-042"));
+    }
+
+    @Test
+    public void shouldLeaveIdentifiersWhoseParadygmIdIsTaken() {
+        pages(Collections.singletonList(row(11, 1, PREFIX + 42, 2019)));
+        when(dao.isIssued(TYPE_UUID, PREFIX + "19-000-042")).thenReturn(true);
+
+        IdentifierReformatter reformatter = newReformatter(10);
+        reformatter.run();
+
+        verify(dao, never()).updateIdentifier(anyInt(), anyString(), anyString(), any());
+        assertEquals(1, reformatter.getConflicts());
+        verify(administrationService).setGlobalProperty(IdentifierReformatter.GP_LAST_IDENTIFIER_ID, "11");
+    }
+
+    @Test
+    public void shouldContinueAfterTheRestartPointPageByPage() {
+        when(administrationService.getGlobalProperty(IdentifierReformatter.GP_LAST_IDENTIFIER_ID)).thenReturn("40");
+        when(dao.getIdentifiers(anyCollection(), eq(40), eq(2)))
+                .thenReturn(Arrays.asList(row(41, 1, PREFIX + 1, 2020), row(42, 2, PREFIX + 2, 2020)));
+        when(dao.getIdentifiers(anyCollection(), eq(42), eq(2)))
+                .thenReturn(Collections.singletonList(row(45, 3, PREFIX + 3, 2020)));
+
+        newReformatter(2).run();
+
+        verify(administrationService).setGlobalProperty(IdentifierReformatter.GP_LAST_IDENTIFIER_ID, "42");
+        verify(administrationService).setGlobalProperty(IdentifierReformatter.GP_LAST_IDENTIFIER_ID, "45");
+        verify(transactionManager, times(2)).commit(any());
+        verify(dao, times(2)).clearSession();
+    }
+
+    @Test
+    public void shouldNotReformatIdentifiersThatCarryNoSequence() {
+        IdentifierReformatter reformatter = newReformatter(10);
+        Date created = created(2020);
+
+        assertEquals(PREFIX + "20-000-042", reformatter.reformat(PREFIX + "000042", PREFIX, created));
+        assertNull(reformatter.reformat(PREFIX + "20-000-042", PREFIX, created));
+        assertNull(reformatter.reformat(PREFIX + 1234567, PREFIX, created));
+        assertNull(reformatter.reformat(PREFIX + "A1", PREFIX, created));
+        assertNull(reformatter.reformat(PREFIX + 42, PREFIX, null));
+    }
+
+    private IdentifierReformatter newReformatter(int batchSize) {
+        Map<String, String> prefixes = Collections.singletonMap(TYPE_UUID, PREFIX);
+        IdentifierReformatter reformatter = new IdentifierReformatter(dao, administrationService, transactionManager,
+                prefixes, null);
+        reformatter.setBatchSize(batchSize);
+        reformatter.setMaxPerSecond(0);
+        return reformatter;
+    }
+
+    private void pages(List<Object[]> rows) {
+        when(dao.getIdentifiers(anyCollection(), eq(0), anyInt())).thenReturn(new ArrayList<>(rows));
+    }
+
+    private Object[] row(int patientIdentifierId, int patientId, String identifier, int yearCreated) {
+        return new Object[] { patientIdentifierId, patientId, TYPE_UUID, identifier, created(yearCreated) };
+    }
+
+    private Date created(int year) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(year, Calendar.MARCH, 1);
+        return calendar.getTime();
+    }
+}
@@ -0,0 +1,83 @@
+package org.openmrs.module.paradygm.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.paradygm.IdentifierEnhancementFactory;
+import org.openmrs.module.paradygm.advice.BeforeSaveAdvice;
+import org.openmrs.module.paradygm.advice.PatientSaveAdvisor;
+import org.springframework.aop.framework.ProxyFactory;
+
+/**
+ * Cost the module adds to a single {@code savePatient} call: {@link BeforeSaveAdvice} around an in-memory
+ * PatientService that returns the patient without saving it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeforeSaveAdviceBenchmark {
+
+    private static final String PREFIX = IdentifierEnhancementBenchmark.PREFIX;
+
+    private PatientService patientService;
+
+    SequentialIdentifierGenerator source;
+
+    @Setup
+    public void setUp() {
+        source = Stubs.identifierSource(IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID, PREFIX);
+        ProxyFactory proxyFactory = new ProxyFactory();
+        proxyFactory.setTarget(Stubs.of(PatientService.class,
+                (proxy, method, args) -> method.getName().equals("savePatient") ? args[0] : null));
+        proxyFactory.addInterface(PatientService.class);
+        proxyFactory.addAdvisor(new PatientSaveAdvisor(
+                new BeforeSaveAdvice(IdentifierEnhancementBenchmark.newFactory(source))));
+        patientService = (PatientService) proxyFactory.getProxy();
+    }
+
+    @Benchmark
+    public Patient savePatient(Registration registration) {
+        return patientService.savePatient(registration.next());
+    }
+
+    /**
+     * The patient registered on one thread, given a fresh identifier before every call.
+     */
+    @State(Scope.Thread)
+    public static class Registration {
+
+        private final Patient patient = new Patient();
+
+        private PatientIdentifier identifier;
+
+        private long sequence;
+
+        @Setup
+        public void setUp(BeforeSaveAdviceBenchmark benchmark) {
+            identifier = new PatientIdentifier(PREFIX, benchmark.source.getIdentifierType(), null);
+            identifier.setPreferred(true);
+            patient.addIdentifier(identifier);
+        }
+
+        Patient next() {
+            identifier.setIdentifier(PREFIX + (++sequence % 1000000));
+            return patient;
+        }
+    }
+}
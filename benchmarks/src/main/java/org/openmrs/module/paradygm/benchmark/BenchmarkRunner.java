@@ -0,0 +1,55 @@
+package org.openmrs.module.paradygm.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the registration and login benchmarks once per thread count, from a single thread up to the number of
+ * available cores, with allocation profiling. Each run writes its results as JSON to
+ * {@code <output directory>/threads-<n>.json} so they can be compared across releases.
+ *
+ * Usage: {@code java -jar benchmarks.jar [output directory] [benchmark regex]}, by default {@code target/jmh}
+ * and all benchmarks of this package.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        File outputDirectory = new File(args.length > 0 ? args[0] : "target/jmh");
+        String include = args.length > 1 ? args[1] : BenchmarkRunner.class.getPackage().getName() + ".*";
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + outputDirectory);
+        }
+        for (int threads : threadCounts(Runtime.getRuntime().availableProcessors())) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(outputDirectory, "threads-" + threads + ".json").getPath());
+            new Runner(options.build()).run();
+        }
+    }
+
+    /**
+     * Returns 1, 2, 4 ... up to and always including the given number of cores.
+     */
+    static List<Integer> threadCounts(int cores) {
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(Math.max(1, cores));
+        return counts;
+    }
+}
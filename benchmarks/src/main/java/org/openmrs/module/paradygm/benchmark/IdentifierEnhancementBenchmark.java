@@ -0,0 +1,106 @@
+package org.openmrs.module.paradygm.benchmark;
+
+import java.time.Year;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.paradygm.IdentifierBlockAllocator;
+import org.openmrs.module.paradygm.IdentifierEnhancementFactory;
+import org.openmrs.module.paradygm.IdentifierEnhancementRegistry;
+import org.openmrs.module.paradygm.IdentifierSourceCache;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Cost of {@link IdentifierEnhancementFactory#enhanceIdentifier(Patient)} for a registration against an in-memory
+ * idgen. With {@code blockSize} 0 the identifier issued by idgen is parsed, otherwise the sequence comes from a
+ * reserved block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentifierEnhancementBenchmark {
+
+    static final String PREFIX = "PDG200-";
+
+    @Param({ "0", "100" })
+    public int blockSize;
+
+    IdentifierEnhancementFactory factory;
+
+    SequentialIdentifierGenerator source;
+
+    @Setup
+    public void setUp() {
+        source = Stubs.identifierSource(IdentifierEnhancementFactory.PARADYGM_IDENTIFIER_SOURCE_UUID, PREFIX);
+        factory = newFactory(source);
+        IdentifierBlockAllocator.getInstance().setTransactionManager(Stubs.of(PlatformTransactionManager.class));
+        IdentifierBlockAllocator.getInstance().setBlockSize(blockSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        IdentifierBlockAllocator.getInstance().setBlockSize(0);
+        IdentifierBlockAllocator.getInstance().discard(source.getUuid());
+    }
+
+    @Benchmark
+    public List<String> enhanceIdentifier(Registration registration) {
+        return factory.enhanceIdentifier(registration.next(this));
+    }
+
+    /**
+     * Returns a factory wired to an in-memory idgen serving the given source, with the current year already
+     * recorded so no run measures the sequence reset.
+     */
+    static IdentifierEnhancementFactory newFactory(SequentialIdentifierGenerator source) {
+        IdentifierSourceCache.getInstance().invalidateAll();
+        IdentifierEnhancementRegistry.getInstance().invalidate();
+        IdentifierEnhancementFactory factory = new IdentifierEnhancementFactory();
+        factory.setIdentifierSourceService(Stubs.identifierSourceService(source));
+        factory.setLastRecordedYearForTesting(Year.now().getValue() % 100);
+        return factory;
+    }
+
+    /**
+     * The patient being registered on one thread, given a fresh identifier before every call.
+     */
+    @State(Scope.Thread)
+    public static class Registration {
+
+        private final Patient patient = new Patient();
+
+        private PatientIdentifier identifier;
+
+        private long sequence;
+
+        @Setup
+        public void setUp(IdentifierEnhancementBenchmark benchmark) {
+            identifier = new PatientIdentifier(PREFIX, benchmark.source.getIdentifierType(), null);
+            identifier.setPreferred(true);
+            patient.addIdentifier(identifier);
+        }
+
+        Patient next(IdentifierEnhancementBenchmark benchmark) {
+            identifier.setIdentifier(benchmark.blockSize > 0 ? PREFIX : PREFIX + (++sequence % 1000000));
+            return patient;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.openmrs.module.paradygm.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openmrs.module.paradygm.IdentifierTemplate;
+import org.openmrs.module.paradygm.ParadygmIdFormatter.ParsedId;
+
+/**
+ * Compares formatting and parsing with an {@link IdentifierTemplate} against the hard-wired Paradygm ID format
+ * the formatter used before templates, for the default template and for a wider one with a check digit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentifierTemplateBenchmark {
+
+    private static final String PREFIX = "PDG200-";
+
+    private static final int YEAR = 25;
+
+    private static final long SEQUENCE = 123456;
+
+    @Param({ IdentifierTemplate.DEFAULT_TEMPLATE, "{prefix}{yy}-{seq:7,group3}{luhn}" })
+    public String template;
+
+    private final StringBuilder buffer = new StringBuilder(32);
+
+    private final char[] digits = new char[19];
+
+    private IdentifierTemplate compiled;
+
+    private String identifier;
+
+    private String hardWiredIdentifier;
+
+    @Setup
+    public void setUp() {
+        compiled = IdentifierTemplate.compile(template);
+        buffer.setLength(0);
+        compiled.appendTo(buffer, PREFIX, YEAR, SEQUENCE);
+        identifier = buffer.toString();
+        hardWiredIdentifier = hardWired();
+    }
+
+    @Benchmark
+    public String hardWired() {
+        buffer.setLength(0);
+        buffer.append(PREFIX);
+        long value = YEAR * 1000000L + SEQUENCE;
+        int length = 0;
+        do {
+            digits[digits.length - 1 - length++] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        int start = digits.length - length;
+        for (int i = 0; i < length; i++) {
+            if (i > 0 && (length - i) % 3 == 0) {
+                buffer.append('-');
+            }
+            buffer.append(digits[start + i]);
+        }
+        return buffer.toString();
+    }
+
+    @Benchmark
+    public String template() {
+        buffer.setLength(0);
+        compiled.appendTo(buffer, PREFIX, YEAR, SEQUENCE);
+        return buffer.toString();
+    }
+
+    @Benchmark
+    public ParsedId hardWiredParse() {
+        long value = 0;
+        for (int i = hardWiredIdentifier.indexOf(PREFIX) + PREFIX.length(); i < hardWiredIdentifier.length(); i++) {
+            char c = hardWiredIdentifier.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else if (c != '-') {
+                throw new IllegalArgumentException(hardWiredIdentifier);
+            }
+        }
+        return new ParsedId((int) (value / 1000000), value % 1000000);
+    }
+
+    @Benchmark
+    public ParsedId templateParse() {
+        return compiled.parse(identifier, PREFIX);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(IdentifierTemplateBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
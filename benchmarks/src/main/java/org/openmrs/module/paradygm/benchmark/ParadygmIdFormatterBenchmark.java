@@ -0,0 +1,78 @@
+package org.openmrs.module.paradygm.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openmrs.module.paradygm.ParadygmIdFormatter;
+
+/**
+ * Compares {@link ParadygmIdFormatter} against the regex based formatting that IdentifierEnhancementFactory
+ * used to do on every registration, and measures parsing an enhanced ID back. Run with {@code -prof gc} to see
+ * the allocation difference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParadygmIdFormatterBenchmark {
+
+    private static final String PREFIX = "PDG200-";
+
+    private static final int YEAR = 25;
+
+    @Param({ "PDG200-1", "PDG200-123456" })
+    public String rawIdentifier;
+
+    private final ParadygmIdFormatter formatter = ParadygmIdFormatter.getInstance();
+
+    private String enhancedIdentifier;
+
+    @Setup
+    public void setUp() {
+        enhancedIdentifier = formatter.format(PREFIX, YEAR, formatter.parseSequence(rawIdentifier, PREFIX));
+    }
+
+    @Benchmark
+    public String legacyRegex() {
+        String bashId = StringUtils.substringAfter(rawIdentifier, PREFIX);
+        int translatedBashId = Integer.valueOf(bashId);
+        translatedBashId = translatedBashId + (YEAR * 1000000);
+        bashId = String.valueOf(translatedBashId);
+        StringBuilder enhancedId = new StringBuilder();
+        enhancedId.append(PREFIX).append(bashId.replaceAll("(\\d)(?=(\\d{3})+$)", "$1-"));
+        return enhancedId.toString();
+    }
+
+    @Benchmark
+    public String formatter() {
+        return formatter.format(PREFIX, YEAR, formatter.parseSequence(rawIdentifier, PREFIX));
+    }
+
+    @Benchmark
+    public ParadygmIdFormatter.ParsedId parse() {
+        return formatter.parse(enhancedIdentifier, PREFIX);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ParadygmIdFormatterBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,68 @@
+package org.openmrs.module.paradygm.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openmrs.Patient;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.paradygm.advice.BeforeSaveAdvice;
+import org.openmrs.module.paradygm.advice.PatientSaveAdvisor;
+import org.springframework.aop.framework.ProxyFactory;
+
+/**
+ * Throughput of PatientService reads through a Spring proxy without the module, with the advice applied to the
+ * whole service (as config.xml used to register it) and with {@link PatientSaveAdvisor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatientServiceAdviceBenchmark {
+
+    @Param({ "none", "advice", "advisor" })
+    public String module;
+
+    private PatientService patientService;
+
+    @Setup
+    public void setUp() {
+        ProxyFactory proxyFactory = new ProxyFactory(Stubs.of(PatientService.class));
+        proxyFactory.addInterface(PatientService.class);
+        if ("advice".equals(module)) {
+            proxyFactory.addAdvice(new BeforeSaveAdvice());
+        } else if ("advisor".equals(module)) {
+            proxyFactory.addAdvisor(new PatientSaveAdvisor());
+        }
+        patientService = (PatientService) proxyFactory.getProxy();
+    }
+
+    @Benchmark
+    public Patient getPatient() {
+        return patientService.getPatient(1);
+    }
+
+    @Benchmark
+    public List<Patient> getPatients() {
+        return patientService.getPatients("john");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PatientServiceAdviceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
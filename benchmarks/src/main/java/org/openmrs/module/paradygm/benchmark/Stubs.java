@@ -0,0 +1,122 @@
+package org.openmrs.module.paradygm.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.module.idgen.SequentialIdentifierGenerator;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+
+/**
+ * In-memory stand-ins for OpenMRS services used by the benchmarks. Every method returns an empty value of its
+ * return type unless the given handler answers it.
+ */
+public final class Stubs {
+
+    private Stubs() {
+    }
+
+    public static <T> T of(Class<T> service) {
+        return of(service, null);
+    }
+
+    public static <T> T of(final Class<T> service, final InvocationHandler answers) {
+        return service.cast(Proxy.newProxyInstance(service.getClassLoader(), new Class<?>[] { service },
+                (proxy, method, args) -> {
+                    if (answers != null) {
+                        Object answer = answers.invoke(proxy, method, args);
+                        if (answer != null) {
+                            return answer;
+                        }
+                    }
+                    return emptyValue(method.getReturnType());
+                }));
+    }
+
+    /**
+     * A sequential generator issuing identifiers of a new identifier type with the given prefix.
+     */
+    public static SequentialIdentifierGenerator identifierSource(String uuid, String prefix) {
+        PatientIdentifierType identifierType = new PatientIdentifierType();
+        identifierType.setName(prefix + " ID");
+        SequentialIdentifierGenerator generator = new SequentialIdentifierGenerator();
+        generator.setUuid(uuid);
+        generator.setPrefix(prefix);
+        generator.setIdentifierType(identifierType);
+        return generator;
+    }
+
+    /**
+     * An IdentifierSourceService that only knows the given generator and issues its identifiers from an
+     * in-memory sequence, the way idgen would without the database round trip.
+     */
+    public static IdentifierSourceService identifierSourceService(final SequentialIdentifierGenerator generator) {
+        final AtomicLong sequence = new AtomicLong(1);
+        return of(IdentifierSourceService.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getIdentifierSourceByUuid":
+                    return generator.getUuid().equals(args[0]) ? generator : null;
+                case "generateIdentifier":
+                    return generator.getPrefix() + sequence.getAndIncrement();
+                case "generateIdentifiers":
+                    int count = (Integer) args[1];
+                    long first = sequence.getAndAdd(count);
+                    List<String> identifiers = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        identifiers.add(generator.getPrefix() + (first + i));
+                    }
+                    return identifiers;
+                case "getSequenceValue":
+                    return sequence.get();
+                case "saveSequenceValue":
+                    sequence.set((Long) args[1]);
+                    return null;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static Object emptyValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (List.class.isAssignableFrom(type)) {
+            return Collections.emptyList();
+        }
+        if (Set.class.isAssignableFrom(type)) {
+            return Collections.emptySet();
+        }
+        if (Map.class.isAssignableFrom(type)) {
+            return Collections.emptyMap();
+        }
+        return null;
+    }
+}
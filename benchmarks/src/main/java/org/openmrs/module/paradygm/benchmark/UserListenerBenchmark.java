@@ -0,0 +1,74 @@
+package org.openmrs.module.paradygm.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.UserSessionListener.Event;
+import org.openmrs.UserSessionListener.Status;
+import org.openmrs.module.paradygm.ParadygmMetadataConstants;
+import org.openmrs.module.paradygm.ParadygmMetadataUserListener;
+
+/**
+ * Cost of {@link ParadygmMetadataUserListener#loggedInOrOut} on the login thread, for a Paradygm user that
+ * already holds its role and for a user outside the role mapping. Every thread logs in as its own user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserListenerBenchmark {
+
+    @Param({ ParadygmMetadataConstants.NURSE_USERNAME, "admin" })
+    public String username;
+
+    private final AtomicInteger userIds = new AtomicInteger();
+
+    private ParadygmMetadataUserListener listener;
+
+    @Setup
+    public void setUp() {
+        listener = new ParadygmMetadataUserListener();
+    }
+
+    @TearDown
+    public void tearDown() {
+        listener.shutdown();
+    }
+
+    @Benchmark
+    public void login(Login login) {
+        listener.loggedInOrOut(login.user, Event.LOGIN, Status.SUCCESS);
+    }
+
+    /**
+     * The user logging in on one thread.
+     */
+    @State(Scope.Thread)
+    public static class Login {
+
+        private User user;
+
+        @Setup
+        public void setUp(UserListenerBenchmark benchmark) {
+            user = new User(benchmark.userIds.incrementAndGet());
+            user.setUsername(benchmark.username);
+            user.addRole(new Role(ParadygmMetadataConstants.NURSE_ROLE_NAME));
+        }
+    }
+}
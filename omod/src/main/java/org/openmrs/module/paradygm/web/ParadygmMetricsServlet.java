@@ -0,0 +1,67 @@
+package org.openmrs.module.paradygm.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.paradygm.metrics.PrometheusTextFormat;
+
+/**
+ * Publishes the Paradygm registration and login metrics in the Prometheus text format at
+ * {@code /moduleServlet/paradygm-emr/metrics}.
+ *
+ * A user with a session needs the {@value #VIEW_METRICS_PRIVILEGE} privilege. A scraper instead sends the
+ * {@value #GP_SCRAPE_TOKEN} global property as a bearer token. Scrapes are not logins: no password is hashed and
+ * no user session is created, so they do not show up in the login metrics either. Token access is disabled while
+ * the property is blank.
+ */
+public class ParadygmMetricsServlet extends HttpServlet {
+
+    public static final String VIEW_METRICS_PRIVILEGE = "View Paradygm Metrics";
+
+    public static final String GP_SCRAPE_TOKEN = "paradygm.metrics.scrapeToken";
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String BEARER_AUTHORIZATION = "Bearer ";
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!hasScrapeToken(request.getHeader("Authorization"))) {
+            if (!Context.isAuthenticated()) {
+                response.setHeader("WWW-Authenticate", "Bearer realm=\"OpenMRS\"");
+                response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+                return;
+            }
+            if (!Context.hasPrivilege(VIEW_METRICS_PRIVILEGE)) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return;
+            }
+        }
+        StringBuilder body = new StringBuilder(16 * 1024);
+        new PrometheusTextFormat().write(body);
+        response.setContentType(PrometheusTextFormat.CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-cache");
+        response.getWriter().write(body.toString());
+    }
+
+    private boolean hasScrapeToken(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER_AUTHORIZATION, 0,
+                BEARER_AUTHORIZATION.length())) {
+            return false;
+        }
+        String expected = StringUtils.trimToNull(Context.getAdministrationService().getGlobalProperty(GP_SCRAPE_TOKEN));
+        if (expected == null) {
+            return false;
+        }
+        String token = authorization.substring(BEARER_AUTHORIZATION.length()).trim();
+        // compared in constant time, so the response time tells nothing about how much of the token matched
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}